@@ -0,0 +1,173 @@
+package cs.umass.edu.prepare.data;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the cold-start load time of the medication images, i.e. reading the serialized
+ * {@link SerialBitmap}s of four medications with two images each, between the byte-at-a-time
+ * read of previous versions and the length-prefixed bulk read. The load times are logged rather
+ * than asserted, since they vary between devices and runs.
+ */
+public class SerialBitmapBenchmark extends AndroidTestCase {
+
+    /** used for debugging purposes */
+    private static final String TAG = SerialBitmapBenchmark.class.getName();
+
+    private static final int NUMBER_OF_IMAGES = 8;
+
+    private static final int IMAGE_SIZE = 512;
+
+    private static final int ITERATIONS = 5;
+
+    /**
+     * Reads its image the way {@link SerialBitmap} did in previous versions, i.e. one byte at a time.
+     */
+    private static class ByteAtATimeBitmap implements Serializable {
+        private transient byte[] bytes;
+
+        ByteAtATimeBitmap(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1)
+                byteStream.write(b);
+            bytes = byteStream.toByteArray();
+        }
+    }
+
+    private static Bitmap createBitmap(int seed) {
+        Bitmap bitmap = Bitmap.createBitmap(IMAGE_SIZE, IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int i = 0; i < 64; i++) {
+            paint.setColor(Color.rgb((seed * 31 + i * 17) % 256, (i * 53) % 256, (seed * 7 + i * 11) % 256));
+            canvas.drawCircle((i * 37 + seed * 13) % IMAGE_SIZE, (i * 71) % IMAGE_SIZE, 10 + i % 40, paint);
+        }
+        return bitmap;
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+        outputStream.writeObject(object);
+        outputStream.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return inputStream.readObject();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Serializes a {@link SerialBitmap} exactly as previous versions did, i.e. a class descriptor
+     * with a single bitmap field followed by the unprefixed PNG encoding.
+     */
+    private static byte[] serializeLegacy(byte[] png) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(ObjectStreamConstants.STREAM_MAGIC);
+        out.writeShort(ObjectStreamConstants.STREAM_VERSION);
+        out.writeByte(ObjectStreamConstants.TC_OBJECT);
+        out.writeByte(ObjectStreamConstants.TC_CLASSDESC);
+        out.writeUTF(SerialBitmap.class.getName());
+        out.writeLong(1220654851144200618L);
+        out.writeByte(ObjectStreamConstants.SC_SERIALIZABLE | ObjectStreamConstants.SC_WRITE_METHOD);
+        out.writeShort(1); // the bitmap field
+        out.writeByte('L');
+        out.writeUTF("bitmap");
+        out.writeByte(ObjectStreamConstants.TC_STRING);
+        out.writeUTF("Landroid/graphics/Bitmap;");
+        out.writeByte(ObjectStreamConstants.TC_ENDBLOCKDATA);
+        out.writeByte(ObjectStreamConstants.TC_NULL); // no serializable superclass
+        for (int offset = 0; offset < png.length; offset += 1024) { // block data as written by ObjectOutputStream
+            int length = Math.min(1024, png.length - offset);
+            if (length < 256) {
+                out.writeByte(ObjectStreamConstants.TC_BLOCKDATA);
+                out.writeByte(length);
+            } else {
+                out.writeByte(ObjectStreamConstants.TC_BLOCKDATALONG);
+                out.writeInt(length);
+            }
+            out.write(png, offset, length);
+        }
+        out.writeByte(ObjectStreamConstants.TC_ENDBLOCKDATA);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    public void testLegacyFormat() throws Exception {
+        SerialBitmap serialBitmap = new SerialBitmap(createBitmap(1));
+        byte[] png = serialBitmap.getEncoded();
+        SerialBitmap result = (SerialBitmap) deserialize(serializeLegacy(png));
+        assertTrue(java.util.Arrays.equals(png, result.getEncoded()));
+        assertEquals(IMAGE_SIZE, result.getBitmap().getWidth());
+    }
+
+    public void testDownsampling() throws Exception {
+        SerialBitmap result = (SerialBitmap) deserialize(serialize(new SerialBitmap(createBitmap(2))));
+        Bitmap bitmap = result.getBitmap(IMAGE_SIZE / 4, IMAGE_SIZE / 4);
+        assertEquals(IMAGE_SIZE / 4, bitmap.getWidth());
+        assertEquals(IMAGE_SIZE, result.getBitmap().getWidth());
+    }
+
+    public void testColdStartLoadTime() throws Exception {
+        ArrayList<ByteAtATimeBitmap> byteAtATime = new ArrayList<>();
+        ArrayList<SerialBitmap> lengthPrefixed = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_IMAGES; i++) {
+            SerialBitmap serialBitmap = new SerialBitmap(createBitmap(i));
+            byteAtATime.add(new ByteAtATimeBitmap(serialBitmap.getEncoded()));
+            lengthPrefixed.add(serialBitmap);
+        }
+        byte[] byteAtATimeBytes = serialize(byteAtATime);
+        byte[] lengthPrefixedBytes = serialize(lengthPrefixed);
+
+        long byteAtATimeTime = 0, lengthPrefixedTime = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            deserialize(byteAtATimeBytes);
+            byteAtATimeTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            @SuppressWarnings("unchecked")
+            List<SerialBitmap> result = (List<SerialBitmap>) deserialize(lengthPrefixedBytes);
+            lengthPrefixedTime += System.nanoTime() - start;
+            assertEquals(NUMBER_OF_IMAGES, result.size());
+            for (int image = 0; image < NUMBER_OF_IMAGES; image++)
+                assertTrue(java.util.Arrays.equals(lengthPrefixed.get(image).getEncoded(), result.get(image).getEncoded()));
+        }
+
+        Log.i(TAG, String.format(Locale.getDefault(),
+                "Reading %d images (%d bytes): byte at a time %.2f ms, length-prefixed %.2f ms",
+                NUMBER_OF_IMAGES, lengthPrefixedBytes.length,
+                byteAtATimeTime / 1e6 / ITERATIONS, lengthPrefixedTime / 1e6 / ITERATIONS));
+    }
+}
@@ -1,7 +1,6 @@
 package cs.umass.edu.prepare.constants;
 
-import java.text.SimpleDateFormat;
-import java.util.Locale;
+import cs.umass.edu.prepare.util.DateFormatter;
 
 /**
  * Maintains various global constants.
@@ -13,17 +12,18 @@ public class Constants {
 
     public static final long[] NOTIFICATION_PATTERN = {0, 600, 0};
 
+    /** Date formats, which may be shared across threads, see {@link DateFormatter}. **/
     public interface DATE_FORMAT {
-        SimpleDateFormat AM_PM = new SimpleDateFormat("h:mm a", Locale.getDefault());
-        SimpleDateFormat _24_HR = new SimpleDateFormat("H:mm", Locale.getDefault());
-        SimpleDateFormat MM_YYYY = new SimpleDateFormat("MM yyyy", Locale.getDefault());
-        SimpleDateFormat MMM_YY = new SimpleDateFormat("MMM yy", Locale.getDefault());
-        SimpleDateFormat MMM_YYYY = new SimpleDateFormat("MMM yyyy", Locale.getDefault());
-        SimpleDateFormat MONTH_DAY = new SimpleDateFormat("M/dd", Locale.getDefault());
-        SimpleDateFormat MONTH_DAY_YEAR = new SimpleDateFormat("MM-dd-yyyy", Locale.getDefault());
-        SimpleDateFormat YEAR_MONTH_DAY = new SimpleDateFormat("yyy-MM-dd", Locale.getDefault());
-        SimpleDateFormat MONTH_DAY_YEAR_SHORT = new SimpleDateFormat("MM.dd.yy", Locale.getDefault());
-        SimpleDateFormat FULL_AM_PM = new SimpleDateFormat("MM/dd/yyyy h:mm a", Locale.getDefault());
+        DateFormatter AM_PM = new DateFormatter("h:mm a");
+        DateFormatter _24_HR = new DateFormatter("H:mm");
+        DateFormatter MM_YYYY = new DateFormatter("MM yyyy");
+        DateFormatter MMM_YY = new DateFormatter("MMM yy");
+        DateFormatter MMM_YYYY = new DateFormatter("MMM yyyy");
+        DateFormatter MONTH_DAY = new DateFormatter("M/dd");
+        DateFormatter MONTH_DAY_YEAR = new DateFormatter("MM-dd-yyyy");
+        DateFormatter YEAR_MONTH_DAY = new DateFormatter("yyy-MM-dd");
+        DateFormatter MONTH_DAY_YEAR_SHORT = new DateFormatter("MM.dd.yy");
+        DateFormatter FULL_AM_PM = new DateFormatter("MM/dd/yyyy h:mm a");
     }
 
     /** Intent actions used to communicate between the main UI and the sensor service
@@ -45,6 +45,7 @@ public class Constants {
         String PILL_INTAKE_RESPONSE_NO = "edu.umass.cs.prepare.action.pill-intake-response-no";
         String SCHEDULE_REMINDERS = "edu.umass.cs.prepare.action.schedule-reminders";
         String PUSH_NOTIFICATION_TO_MSBAND = "edu.umass.cs.prepare.action.push-notification";
+        String PILL_INTAKE_GESTURE_DETECTED = "edu.umass.cs.prepare.action.pill-intake-gesture-detected";
     }
 
     public interface SERVER_MESSAGE {
@@ -52,6 +53,20 @@ public class Constants {
         String UPDATE_DATA = "UPDATE_DATA";
     }
 
+    /**
+     * Sensor types of readings sent to the server, in addition to those defined by the MHL client.
+     */
+    public interface SENSOR_TYPE {
+        String WEARABLE_BATCH = "WEARABLE_BATCH";
+    }
+
+    /**
+     * Requests sent to the server, as the sensor type of a sensor reading.
+     */
+    public interface SERVER_REQUEST {
+        String SYNC_ADHERENCE_DATA = "SYNC_ADHERENCE_DATA";
+    }
+
     public interface MESSAGES {
         int BEACON_WITHIN_RANGE = 0;
         int METAWEAR_CONNECTED = 1;
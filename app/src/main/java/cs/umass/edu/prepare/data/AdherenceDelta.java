@@ -0,0 +1,102 @@
+package cs.umass.edu.prepare.data;
+
+import java.util.Arrays;
+
+/**
+ * The adherence slots changed on the server since a given version, as sent in a delta update.
+ * Each change sets a single packed slot, see {@link AdherenceFormat#pack(Adherence.AdherenceType, int)};
+ * an {@link AdherenceFormat#EMPTY empty} slot clears the adherence. Changes are held in parallel
+ * arrays rather than one object per change.
+ */
+public class AdherenceDelta {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+
+    private int[] epochDays = new int[INITIAL_CAPACITY];
+
+    private String[] medicationNames = new String[INITIAL_CAPACITY];
+
+    private byte[] indices = new byte[INITIAL_CAPACITY];
+
+    private short[] slots = new short[INITIAL_CAPACITY];
+
+    private int firstDay = Integer.MAX_VALUE;
+
+    private int lastDay = Integer.MIN_VALUE;
+
+    /**
+     * Adds a change to the delta.
+     * @param epochDay the epoch day.
+     * @param medicationName the name of the medication.
+     * @param index the index into the day, i.e. AM or PM.
+     * @param slot the new packed slot.
+     */
+    void add(int epochDay, String medicationName, int index, short slot){
+        if (size == epochDays.length) {
+            int capacity = 2 * size;
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            medicationNames = Arrays.copyOf(medicationNames, capacity);
+            indices = Arrays.copyOf(indices, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+        }
+        epochDays[size] = epochDay;
+        medicationNames[size] = medicationName;
+        indices[size] = (byte) index;
+        slots[size] = slot;
+        size++;
+        firstDay = Math.min(firstDay, epochDay);
+        lastDay = Math.max(lastDay, epochDay);
+    }
+
+    /**
+     * Returns the number of changed slots.
+     */
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Returns the first changed day, undefined if the delta is empty.
+     */
+    public int getFirstDay(){
+        return firstDay;
+    }
+
+    /**
+     * Returns the last changed day, inclusive, undefined if the delta is empty.
+     */
+    public int getLastDay(){
+        return lastDay;
+    }
+
+    int getEpochDay(int i){
+        return epochDays[i];
+    }
+
+    String getMedicationName(int i){
+        return medicationNames[i];
+    }
+
+    int getIndex(int i){
+        return indices[i];
+    }
+
+    short getSlot(int i){
+        return slots[i];
+    }
+
+    /**
+     * Applies all changes to the given adherence data.
+     * @param adherenceStore the adherence data.
+     */
+    void applyTo(AdherenceStore adherenceStore){
+        for (int i = 0; i < size; i++)
+            adherenceStore.setSlot(epochDays[i], medicationNames[i], indices[i], slots[i]);
+    }
+}
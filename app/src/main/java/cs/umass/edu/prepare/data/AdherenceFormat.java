@@ -0,0 +1,214 @@
+package cs.umass.edu.prepare.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+
+import cs.umass.edu.prepare.util.Utils;
+
+/**
+ * A compact, versioned binary format for the adherence data. Rather than serializing a
+ * {@link Calendar}, a {@link java.util.HashMap} and an {@link Adherence} object per slot, the data is
+ * stored in columns:
+ *
+ * <pre>
+ * int     magic number, see {@link #MAGIC}
+ * short   format version, see {@link #VERSION}
+ * short   number of slots per day, i.e. 2 (AM and PM)
+ * int     number of medications M, followed by M medication names
+ * int     number of days D
+ * int[D]  the day index, each day given as its epoch day in ascending order
+ * M x short[D x slots]  a column of packed slots per medication
+ * </pre>
+ *
+ * Each slot packs the adherence type and the minute of day at which the pill was taken into
+ * a single short, see {@link #pack(Adherence)}.
+ */
+class AdherenceFormat {
+
+    /** Identifies a file written in this format, as opposed to a serialized Java object. */
+    static final int MAGIC = 0x50524144; // "PRAD"
+
+    /** The current version of the format. */
+    static final short VERSION = 1;
+
+    /** The number of adherence slots per medication per day, i.e. AM and PM. */
+    static final int SLOTS_PER_DAY = 2;
+
+    /** The number of bits used to encode the minute of day in a packed slot. */
+    private static final int MINUTE_BITS = 11;
+
+    /** Masks the minute of day in a packed slot. Also indicates that no time is associated with the slot. */
+    static final int NO_MINUTE = (1 << MINUTE_BITS) - 1;
+
+    /** A packed slot for which no adherence is available. */
+    static final short EMPTY = 0;
+
+    /** The adherence types, cached because {@link Adherence.AdherenceType#values()} copies the array. */
+    private static final Adherence.AdherenceType[] ADHERENCE_TYPES = Adherence.AdherenceType.values();
+
+    private AdherenceFormat(){}
+
+    /**
+     * Packs an adherence into a short. The upper bits hold the adherence type (0 indicating
+     * that no adherence is available) and the lower {@link #MINUTE_BITS} bits hold the minute
+     * of day at which the pill was taken, or {@link #NO_MINUTE}.
+     * @param adherence the adherence, may be null.
+     * @return the packed slot.
+     */
+    static short pack(Adherence adherence){
+        if (adherence == null || adherence.getAdherenceType() == null)
+            return EMPTY;
+        Calendar timeTaken = adherence.getTimeTaken();
+        int minute = NO_MINUTE;
+        if (timeTaken != null)
+            minute = 60 * timeTaken.get(Calendar.HOUR_OF_DAY) + timeTaken.get(Calendar.MINUTE);
+        return pack(adherence.getAdherenceType(), minute);
+    }
+
+    /**
+     * Packs an adherence type and a minute of day into a short.
+     * @param adherenceType one of {@link Adherence.AdherenceType}.
+     * @param minuteOfDay the minute of day in [0, 1440), or {@link #NO_MINUTE}.
+     * @return the packed slot.
+     */
+    static short pack(Adherence.AdherenceType adherenceType, int minuteOfDay){
+        return (short) (((adherenceType.ordinal() + 1) << MINUTE_BITS) | (minuteOfDay & NO_MINUTE));
+    }
+
+    /**
+     * Returns the adherence type encoded in a packed slot.
+     * @param slot the packed slot.
+     * @return one of {@link Adherence.AdherenceType}, or null if the slot is {@link #EMPTY}.
+     */
+    static Adherence.AdherenceType getAdherenceType(short slot){
+        int code = (slot & 0xFFFF) >>> MINUTE_BITS;
+        if (code == 0)
+            return null;
+        return ADHERENCE_TYPES[code - 1];
+    }
+
+    /**
+     * Returns the minute of day encoded in a packed slot.
+     * @param slot the packed slot.
+     * @return the minute of day in [0, 1440), or {@link #NO_MINUTE}.
+     */
+    static int getMinuteOfDay(short slot){
+        return slot & NO_MINUTE;
+    }
+
+    /**
+     * Decodes a packed slot into an {@link Adherence} object.
+     * @param slot the packed slot.
+     * @param epochDay the day to which the slot belongs, used for the time taken.
+     * @return an adherence object, or null if the slot is {@link #EMPTY}.
+     */
+    static Adherence unpack(short slot, int epochDay){
+        Adherence.AdherenceType adherenceType = getAdherenceType(slot);
+        if (adherenceType == null)
+            return null;
+        int minute = getMinuteOfDay(slot);
+        Calendar timeTaken = null;
+        if (minute != NO_MINUTE) {
+            timeTaken = Utils.getDateKey(epochDay);
+            timeTaken.set(Calendar.HOUR_OF_DAY, minute / 60);
+            timeTaken.set(Calendar.MINUTE, minute % 60);
+        }
+        return new Adherence(adherenceType, timeTaken);
+    }
+
+    /**
+     * Indicates whether the stream begins with the {@link #MAGIC magic number} of this format.
+     * The stream must support {@link DataInputStream#mark(int) mark}, so that it can be reset.
+     * @param inputStream the stream from which to read.
+     * @return true if the stream is in this format, false if it is e.g. a serialized Java object.
+     * @throws IOException if the stream could not be read.
+     */
+    static boolean isAdherenceFormat(DataInputStream inputStream) throws IOException {
+        inputStream.mark(4);
+        try {
+            return inputStream.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * Writes the adherence data to the given stream. Only days for which any adherence has been
+     * set are written.
+     * @param adherenceStore the adherence data.
+     * @param outputStream the stream to which to write.
+     * @throws IOException if the data could not be written.
+     */
+    static void write(AdherenceStore adherenceStore, DataOutputStream outputStream) throws IOException {
+        List<String> columns = adherenceStore.getMedicationNames();
+        int dayCount = 0;
+        int[] epochDays = new int[0];
+        if (!adherenceStore.isEmpty()) {
+            epochDays = new int[adherenceStore.getLastDay() - adherenceStore.getFirstDay() + 1];
+            for (int epochDay = adherenceStore.getFirstDay(); epochDay <= adherenceStore.getLastDay(); epochDay++) {
+                if (adherenceStore.contains(epochDay))
+                    epochDays[dayCount++] = epochDay;
+            }
+        }
+
+        outputStream.writeInt(MAGIC);
+        outputStream.writeShort(VERSION);
+        outputStream.writeShort(SLOTS_PER_DAY);
+        outputStream.writeInt(columns.size());
+        for (String medicationName : columns)
+            outputStream.writeUTF(medicationName);
+
+        outputStream.writeInt(dayCount);
+        for (int day = 0; day < dayCount; day++)
+            outputStream.writeInt(epochDays[day]);
+
+        for (String medicationName : columns) {
+            for (int day = 0; day < dayCount; day++) {
+                for (int slot = 0; slot < SLOTS_PER_DAY; slot++)
+                    outputStream.writeShort(adherenceStore.getSlot(epochDays[day], medicationName, slot));
+            }
+        }
+    }
+
+    /**
+     * Reads adherence data from the given stream.
+     * @param inputStream the stream from which to read.
+     * @return the adherence data.
+     * @throws IOException if the stream is not in this format or could not be read.
+     */
+    static AdherenceStore read(DataInputStream inputStream) throws IOException {
+        if (inputStream.readInt() != MAGIC)
+            throw new IOException("Not an adherence data file.");
+        short version = inputStream.readShort();
+        if (version > VERSION)
+            throw new IOException("Unsupported adherence data version " + version);
+        int slotsPerDay = inputStream.readShort();
+
+        int medicationCount = inputStream.readInt();
+        String[] columns = new String[medicationCount];
+        for (int i = 0; i < medicationCount; i++)
+            columns[i] = inputStream.readUTF();
+
+        int dayCount = inputStream.readInt();
+        int[] epochDays = new int[dayCount];
+        for (int i = 0; i < dayCount; i++)
+            epochDays[i] = inputStream.readInt();
+
+        AdherenceStore adherenceStore = new AdherenceStore();
+        for (String medicationName : columns) {
+            for (int day = 0; day < dayCount; day++) {
+                for (int slot = 0; slot < slotsPerDay; slot++) {
+                    short packed = inputStream.readShort();
+                    if (slot < SLOTS_PER_DAY && packed != EMPTY)
+                        adherenceStore.setSlot(epochDays[day], medicationName, slot, packed);
+                }
+            }
+        }
+        return adherenceStore;
+    }
+}
@@ -0,0 +1,89 @@
+package cs.umass.edu.prepare.data;
+
+/**
+ * Counts the slots of each adherence type in a column of an {@link AdherenceStore} over any range
+ * of days in logarithmic time, so that aggregating adherence by week or by month does not walk
+ * every day. For each adherence type, a Fenwick tree (binary indexed tree) holds prefix sums of
+ * the number of slots of that type per day. When a single slot changes, the trees are updated
+ * in logarithmic time as well, see {@link #update(int, short, short)}.
+ */
+class AdherenceIndex {
+
+    private static final int TYPES = Adherence.AdherenceType.values().length;
+
+    /** The number of days covered, i.e. the capacity of the column. */
+    private final int days;
+
+    /** A 1-based Fenwick tree over the days per adherence type, indexed by {@link Adherence.AdherenceType#ordinal()}. */
+    private final int[][] trees;
+
+    /**
+     * Builds the index of a column in linear time.
+     * @param column the column of packed slots, {@link AdherenceStore#SLOTS_PER_DAY} per day.
+     * @param days the number of days in the column.
+     */
+    AdherenceIndex(short[] column, int days){
+        this.days = days;
+        trees = new int[TYPES][days + 1];
+        for (int slot = 0; slot < days * AdherenceStore.SLOTS_PER_DAY; slot++) {
+            Adherence.AdherenceType adherenceType = AdherenceFormat.getAdherenceType(column[slot]);
+            if (adherenceType != null)
+                trees[adherenceType.ordinal()][slot / AdherenceStore.SLOTS_PER_DAY + 1]++;
+        }
+        for (int[] tree : trees) {
+            for (int i = 1; i <= days; i++) {
+                int parent = i + (i & -i);
+                if (parent <= days)
+                    tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * Updates the index after a slot has changed.
+     * @param day the index of the day in the column.
+     * @param oldSlot the previous packed slot.
+     * @param newSlot the new packed slot.
+     */
+    void update(int day, short oldSlot, short newSlot){
+        Adherence.AdherenceType oldType = AdherenceFormat.getAdherenceType(oldSlot);
+        Adherence.AdherenceType newType = AdherenceFormat.getAdherenceType(newSlot);
+        if (oldType == newType)
+            return;
+        if (oldType != null)
+            add(trees[oldType.ordinal()], day, -1);
+        if (newType != null)
+            add(trees[newType.ordinal()], day, 1);
+    }
+
+    private void add(int[] tree, int day, int delta){
+        for (int i = day + 1; i <= days; i += i & -i)
+            tree[i] += delta;
+    }
+
+    /**
+     * Returns the sum over the days preceding the given day.
+     */
+    private static int prefixSum(int[] tree, int day){
+        int sum = 0;
+        for (int i = day; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    /**
+     * Counts the adherence types over a range of days.
+     * @param fromDay the index of the first day in the column, inclusive.
+     * @param toDay the index of the last day in the column, exclusive.
+     * @param counts the counts, indexed by {@link Adherence.AdherenceType#ordinal()}, to which
+     *               the number of slots of each type in the range are added.
+     */
+    void count(int fromDay, int toDay, int[] counts){
+        fromDay = Math.max(fromDay, 0);
+        toDay = Math.min(toDay, days);
+        if (fromDay >= toDay)
+            return;
+        for (int type = 0; type < TYPES; type++)
+            counts[type] += prefixSum(trees[type], toDay) - prefixSum(trees[type], fromDay);
+    }
+}
@@ -0,0 +1,264 @@
+package cs.umass.edu.prepare.data;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead journal of adherence mutations. Rather than re-serializing the
+ * entire adherence history each time a single dose changes, each mutation is appended to the
+ * journal as one small record. On load, the journal is replayed over the most recent snapshot.
+ * Once the journal grows beyond {@link #COMPACTION_THRESHOLD} records, the owner should write a
+ * new snapshot and {@link #reset() reset} the journal.
+ *
+ * Each record sets an absolute value, so replaying a record more than once is harmless. This
+ * makes it safe to write the snapshot before truncating the journal.
+ *
+ * Each record is checksummed, so that a record which was only partially written or corrupted
+ * on disk is detected on replay:
+ *
+ * <pre>
+ * int     length L of the payload
+ * int     CRC-32 of the payload
+ * byte[L] the payload: epoch day, medication name, index, adherence type ordinal and time taken
+ * </pre>
+ *
+ * Records are appended on the {@link DataWriter} thread, so all methods are synchronized.
+ */
+class AdherenceJournal {
+
+    /** used for debugging purposes */
+    private static final String TAG = AdherenceJournal.class.getName();
+
+    /** The number of records after which the journal should be compacted into a snapshot. */
+    static final int COMPACTION_THRESHOLD = 256;
+
+    /** Indicates that no time taken is associated with the adherence. */
+    private static final long NO_TIME = -1;
+
+    /** The length of the payload of a record, excluding the medication name. */
+    private static final int FIXED_PAYLOAD_SIZE = 4 + 2 + 1 + 1 + 8;
+
+    /** The maximum length of the payload of a record, since the medication name is written as modified UTF-8. */
+    private static final int MAX_PAYLOAD_SIZE = FIXED_PAYLOAD_SIZE + 0xFFFF;
+
+    /**
+     * Receives the records read from the journal during {@link #replay(Replayer)}.
+     */
+    interface Replayer {
+        /**
+         * Called once for each complete record in the journal, in the order they were written.
+         * @param epochDay the number of days since January 1, 1970 of the affected date.
+         * @param medicationName the name of the affected medication.
+         * @param index the index into the adherence array, i.e. AM or PM.
+         * @param adherenceType the new adherence type.
+         * @param timeTaken the time at which the pill was taken in milliseconds, or -1 if not applicable.
+         */
+        void onRecord(int epochDay, String medicationName, int index, Adherence.AdherenceType adherenceType, long timeTaken);
+    }
+
+    /** The file backing the journal. */
+    private final File file;
+
+    /** The number of records currently in the journal. */
+    private int size;
+
+    /** Indicates whether the journal ends in a partially written record. */
+    private boolean torn;
+
+    /** Indicates whether a compaction has been scheduled but the journal has not been reset yet. */
+    private boolean compactionPending;
+
+    AdherenceJournal(File file){
+        this.file = file;
+    }
+
+    /**
+     * Appends a single adherence mutation to the journal.
+     * @param epochDay the number of days since January 1, 1970 of the affected date.
+     * @param medicationName the name of the affected medication.
+     * @param index the index into the adherence array, i.e. AM or PM.
+     * @param adherence the new adherence, may be null.
+     * @throws IOException if the record could not be written, in which case the journal is
+     * flagged for compaction.
+     */
+    synchronized void append(int epochDay, String medicationName, int index, Adherence adherence) throws IOException {
+        try {
+            FileOutputStream fileStream = new FileOutputStream(file, true);
+            try {
+                DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+                writeRecord(outputStream, epochDay, medicationName, index, adherence);
+                outputStream.flush();
+                fileStream.getFD().sync();
+            } finally {
+                fileStream.close();
+            }
+        } catch (IOException e) {
+            torn = true; // a partial record may have been written, or the change is only in memory
+            throw e;
+        }
+        size++;
+    }
+
+    /**
+     * Appends all changes of an adherence delta to the journal, one record per changed slot.
+     * @param delta the changes.
+     * @throws IOException if the records could not be written, in which case the journal is
+     * flagged for compaction.
+     */
+    synchronized void append(AdherenceDelta delta) throws IOException {
+        try {
+            FileOutputStream fileStream = new FileOutputStream(file, true);
+            try {
+                DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+                for (int i = 0; i < delta.size(); i++) {
+                    int epochDay = delta.getEpochDay(i);
+                    writeRecord(outputStream, epochDay, delta.getMedicationName(i), delta.getIndex(i),
+                            AdherenceFormat.unpack(delta.getSlot(i), epochDay));
+                }
+                outputStream.flush();
+                fileStream.getFD().sync();
+            } finally {
+                fileStream.close();
+            }
+        } catch (IOException e) {
+            torn = true; // a partial record may have been written, or the changes are only in memory
+            throw e;
+        }
+        size += delta.size();
+    }
+
+    private static void writeRecord(DataOutputStream outputStream, int epochDay, String medicationName, int index, Adherence adherence) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(FIXED_PAYLOAD_SIZE + medicationName.length());
+        DataOutputStream payloadStream = new DataOutputStream(payload);
+        payloadStream.writeInt(epochDay);
+        payloadStream.writeUTF(medicationName);
+        payloadStream.writeByte(index);
+        if (adherence == null) {
+            payloadStream.writeByte(-1);
+            payloadStream.writeLong(NO_TIME);
+        } else {
+            payloadStream.writeByte(adherence.getAdherenceType().ordinal());
+            payloadStream.writeLong(adherence.getTimeTaken() == null ? NO_TIME : adherence.getTimeTaken().getTimeInMillis());
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        outputStream.writeInt(bytes.length);
+        outputStream.writeInt((int) crc.getValue());
+        outputStream.write(bytes);
+    }
+
+    /**
+     * Replays all valid records in the journal. Replay stops at the first record which is
+     * truncated, fails its checksum or holds an invalid adherence type or index, e.g. if the
+     * application was killed mid-write or the tail of the file was corrupted. That record and any
+     * records following it are ignored and the journal is flagged for compaction, so that
+     * subsequent records are not appended after the torn record.
+     * @param replayer receives each record.
+     * @return the number of records replayed.
+     */
+    synchronized int replay(Replayer replayer){
+        size = 0;
+        torn = false;
+        compactionPending = false;
+        DataInputStream inputStream;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return 0; // nothing has been journaled since the last snapshot
+        }
+        Adherence.AdherenceType[] adherenceTypes = Adherence.AdherenceType.values();
+        byte[] bytes = new byte[MAX_PAYLOAD_SIZE];
+        CRC32 crc = new CRC32();
+        try {
+            while (inputStream.available() > 0) {
+                int length = inputStream.readInt();
+                int checksum = inputStream.readInt();
+                if (length < FIXED_PAYLOAD_SIZE || length > MAX_PAYLOAD_SIZE)
+                    throw new IOException("Invalid record length " + length);
+                inputStream.readFully(bytes, 0, length);
+                crc.reset();
+                crc.update(bytes, 0, length);
+                if ((int) crc.getValue() != checksum)
+                    throw new IOException("Checksum mismatch");
+
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+                int epochDay = payload.readInt();
+                String medicationName = payload.readUTF();
+                int index = payload.readByte();
+                int ordinal = payload.readByte();
+                long timeTaken = payload.readLong();
+                if (index < 0 || index >= AdherenceStore.SLOTS_PER_DAY)
+                    throw new IOException("Invalid adherence index " + index);
+                if (ordinal < -1 || ordinal >= adherenceTypes.length)
+                    throw new IOException("Invalid adherence type " + ordinal);
+                replayer.onRecord(epochDay, medicationName, index, ordinal < 0 ? null : adherenceTypes[ordinal], timeTaken);
+                size++;
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "Ignoring partially written record at the end of the adherence journal.");
+            torn = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring corrupt adherence journal after " + size + " records: " + e.getMessage());
+            torn = true;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Indicates whether a record could not be written or replayed since the journal was last
+     * reset, in which case records appended since may not be replayed.
+     */
+    synchronized boolean isTorn(){
+        return torn;
+    }
+
+    /**
+     * Indicates whether the journal has grown large enough that it should be compacted, unless
+     * a compaction has already been scheduled, see {@link #setCompactionPending(boolean)}.
+     * @return true if a new snapshot should be written.
+     */
+    synchronized boolean shouldCompact(){
+        return !compactionPending && (torn || size >= COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Indicates that a compaction has been scheduled, so that no further compaction is
+     * requested until the journal is {@link #reset() reset}, or that the scheduled compaction
+     * failed, so that it is requested again.
+     * @param compactionPending true if a compaction has been scheduled.
+     */
+    synchronized void setCompactionPending(boolean compactionPending){
+        this.compactionPending = compactionPending;
+    }
+
+    /**
+     * Discards all records, e.g. after a new snapshot has been written.
+     */
+    synchronized void reset(){
+        if (file.exists() && !file.delete())
+            Log.w(TAG, "Failed to delete adherence journal " + file); // replaying it again is harmless
+        size = 0;
+        torn = false;
+        compactionPending = false;
+    }
+}
@@ -0,0 +1,169 @@
+package cs.umass.edu.prepare.data;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import cs.umass.edu.prepare.util.Utils;
+
+/**
+ * Reads the adherence data sent by the server, writing each slot directly into an
+ * {@link AdherenceStore}. The MHL client delivers each server message as an org.json tree, which
+ * is walked in place rather than re-encoded, and no {@link java.util.Calendar} or
+ * {@link Adherence} object is allocated per slot. The adherence data is expected in the form
+ *
+ * <pre>
+ * {
+ *   "2017-08-15": {
+ *     "Ritonavir": [["TAKEN", "8:05"], ["MISSED", "20:00"]],
+ *     ...
+ *   },
+ *   ...
+ * }
+ * </pre>
+ *
+ * where each date maps each medication to its AM and PM adherence, each given by an adherence
+ * type, see {@link Adherence.AdherenceType}, and the time at which the pill was taken. The same
+ * form is used for a delta containing only the days changed since a given version, see
+ * {@link #readDelta(JSONObject, Collection)}.
+ */
+public class AdherenceJsonReader {
+
+    /**
+     * Receives each slot read by {@link #read(JSONObject, Collection, SlotConsumer)}.
+     */
+    interface SlotConsumer {
+        /**
+         * @param epochDay the epoch day.
+         * @param medicationName the name of the medication.
+         * @param index the index into the day, i.e. AM or PM.
+         * @param slot the packed slot, see {@link AdherenceFormat#pack(Adherence.AdherenceType, int)}.
+         */
+        void onSlot(int epochDay, String medicationName, int index, short slot);
+    }
+
+    /** Maps the name of each adherence type to the adherence type. **/
+    private static final Map<String, Adherence.AdherenceType> ADHERENCE_TYPES = new HashMap<>();
+
+    static {
+        for (Adherence.AdherenceType adherenceType : Adherence.AdherenceType.values())
+            ADHERENCE_TYPES.put(adherenceType.name(), adherenceType);
+    }
+
+    private AdherenceJsonReader(){}
+
+    /**
+     * Reads adherence data into a new adherence store.
+     * @param json the JSON adherence data.
+     * @param medications the medications for which to read the adherence, or null to read all
+     *                    medications. The adherence of other medications is skipped.
+     * @return the adherence data.
+     * @throws IOException if the adherence data is malformed.
+     */
+    public static AdherenceStore read(JSONObject json, Collection<Medication> medications) throws IOException {
+        AdherenceStore adherenceStore = new AdherenceStore();
+        read(json, medications, adherenceStore::setSlot);
+        return adherenceStore;
+    }
+
+    /**
+     * Reads the days of adherence data changed since a given version. Unlike
+     * {@link #read(JSONObject, Collection)}, cleared slots are retained, so that the delta can clear
+     * slots when applied, see {@link DataIO#applyAdherenceDelta(android.content.Context, AdherenceDelta, long, long)}.
+     * @param json the JSON adherence data, containing only the changed days.
+     * @param medications the medications for which to read the adherence, or null to read all
+     *                    medications. The adherence of other medications is skipped.
+     * @return the changed slots.
+     * @throws IOException if the adherence data is malformed.
+     */
+    public static AdherenceDelta readDelta(JSONObject json, Collection<Medication> medications) throws IOException {
+        AdherenceDelta delta = new AdherenceDelta();
+        read(json, medications, delta::add);
+        return delta;
+    }
+
+    private static void read(JSONObject json, Collection<Medication> medications, SlotConsumer consumer) throws IOException {
+        Iterator<String> dates = json.keys();
+        while (dates.hasNext()) {
+            String date = dates.next();
+            int epochDay;
+            try {
+                epochDay = Utils.parseEpochDay(date);
+            } catch (ParseException e) {
+                throw new IOException(e.getMessage() + " at " + date, e);
+            }
+            JSONObject medicationAdherence = json.optJSONObject(date);
+            if (medicationAdherence == null)
+                throw new IOException("Expected adherence by medication at " + date);
+            if (medications == null) {
+                Iterator<String> medicationNames = medicationAdherence.keys();
+                while (medicationNames.hasNext())
+                    readDay(medicationAdherence, epochDay, medicationNames.next(), consumer, date);
+            } else {
+                for (Medication medication : medications)
+                    readDay(medicationAdherence, epochDay, medication.getName(), consumer, date);
+            }
+        }
+    }
+
+    /**
+     * Reads the AM and PM adherence of a medication on a single day, if present.
+     * @param medicationAdherence the adherence of each medication on that day.
+     * @param path the date, to locate malformed adherence data.
+     */
+    private static void readDay(JSONObject medicationAdherence, int epochDay, String medicationName,
+                                SlotConsumer consumer, String path) throws IOException {
+        if (!medicationAdherence.has(medicationName))
+            return;
+        JSONArray doses = medicationAdherence.optJSONArray(medicationName);
+        if (doses == null)
+            throw new IOException("Expected an array of adherence at " + path + "." + medicationName);
+        int count = Math.min(doses.length(), AdherenceStore.SLOTS_PER_DAY);
+        for (int index = 0; index < count; index++) {
+            JSONArray adherence = doses.optJSONArray(index);
+            if (adherence == null)
+                throw new IOException("Expected an adherence at " + path + "." + medicationName + "[" + index + "]");
+            consumer.onSlot(epochDay, medicationName, index, readSlot(adherence, path));
+        }
+    }
+
+    /**
+     * Reads a single adherence, i.e. an array containing the adherence type and the time taken.
+     * @param adherence the adherence.
+     * @param path the date, to locate malformed adherence data.
+     * @return the packed slot, see {@link AdherenceFormat#pack(Adherence.AdherenceType, int)}.
+     */
+    private static short readSlot(JSONArray adherence, String path) throws IOException {
+        Adherence.AdherenceType adherenceType = ADHERENCE_TYPES.get(getStringOrNull(adherence, 0));
+        if (adherenceType == null)
+            return AdherenceFormat.EMPTY;
+        String time = getStringOrNull(adherence, 1);
+        int minuteOfDay = AdherenceFormat.NO_MINUTE;
+        if (time != null && adherenceType != Adherence.AdherenceType.MISSED) {
+            try {
+                minuteOfDay = Utils.parseMinuteOfDay(time);
+            } catch (ParseException e) {
+                throw new IOException(e.getMessage() + " at " + path, e);
+            }
+        }
+        return AdherenceFormat.pack(adherenceType, minuteOfDay);
+    }
+
+    /**
+     * Returns an element as a string, treating a missing element, a JSON null and the string
+     * "null" as null.
+     */
+    private static String getStringOrNull(JSONArray array, int index){
+        Object value = array.opt(index);
+        if (value == null || value == JSONObject.NULL)
+            return null;
+        String string = value.toString();
+        return string.equals("null") ? null : string;
+    }
+}
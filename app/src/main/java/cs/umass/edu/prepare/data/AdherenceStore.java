@@ -0,0 +1,302 @@
+package cs.umass.edu.prepare.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cs.umass.edu.prepare.util.Utils;
+
+/**
+ * Holds the entire adherence data, keyed by epoch day (the number of days since January 1, 1970,
+ * see {@link Utils#getEpochDay(int, int, int)}). Rather than mapping {@link Calendar} keys to a
+ * map of medications to {@link Adherence} objects, each medication has a dense column of packed
+ * slots, two per day (AM and PM), so that looking up a day is an array index and iterating over
+ * a range of days does not allocate. The packed slots are described in {@link AdherenceFormat}.
+ *
+ * Medications are identified by name, consistent with {@link Medication#equals(Object)}.
+ */
+public class AdherenceStore {
+
+    /** The number of adherence slots per medication per day, i.e. AM and PM. */
+    public static final int SLOTS_PER_DAY = AdherenceFormat.SLOTS_PER_DAY;
+
+    /** The number of days for which space is allocated when the first adherence is set. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Maps a medication name to the index of its column. */
+    private final Map<String, Integer> columnIndices = new HashMap<>();
+
+    /** The medication names, in the order of their columns. */
+    private final List<String> medicationNames = new ArrayList<>();
+
+    /** A column of packed slots per medication, {@link #SLOTS_PER_DAY} per day starting at {@link #offsetDay}. */
+    private short[][] columns = new short[0][];
+
+    /**
+     * The index of each column used by {@link #countAdherence(int, int, Medication, int[])}, built
+     * on the first count and then updated as slots change, null if not built.
+     */
+    private AdherenceIndex[] indices = new AdherenceIndex[0];
+
+    /** The epoch day corresponding to the first slot in each column. */
+    private int offsetDay;
+
+    /** The number of days for which space is allocated in each column. */
+    private int capacity;
+
+    /** The first and last epoch day for which an adherence has been set. */
+    private int firstDay = Integer.MAX_VALUE, lastDay = Integer.MIN_VALUE;
+
+    /**
+     * Indicates whether no adherence has been set.
+     * @return true if the store is empty.
+     */
+    public boolean isEmpty(){
+        return firstDay > lastDay;
+    }
+
+    /**
+     * Returns the first epoch day for which an adherence has been set.
+     * @return the epoch day, undefined if the store {@link #isEmpty() is empty}.
+     */
+    public int getFirstDay(){
+        return firstDay;
+    }
+
+    /**
+     * Returns the last epoch day for which an adherence has been set.
+     * @return the epoch day, undefined if the store {@link #isEmpty() is empty}.
+     */
+    public int getLastDay(){
+        return lastDay;
+    }
+
+    /**
+     * Returns the names of the medications for which adherence has been set.
+     * @return an unmodifiable list of medication names, in column order.
+     */
+    public List<String> getMedicationNames(){
+        return Collections.unmodifiableList(medicationNames);
+    }
+
+    /**
+     * Returns the index of the slot for the given day and AM/PM index, or -1 if no space has been
+     * allocated for that day.
+     */
+    private int getSlotIndex(int epochDay, int index){
+        int day = epochDay - offsetDay;
+        if (day < 0 || day >= capacity)
+            return -1;
+        return day * SLOTS_PER_DAY + index;
+    }
+
+    /**
+     * Returns the column for the given medication.
+     * @param medicationName the name of the medication.
+     * @return the column of packed slots, or null if no adherence has been set for the medication.
+     */
+    private short[] getColumn(String medicationName){
+        Integer column = columnIndices.get(medicationName);
+        return column == null ? null : columns[column];
+    }
+
+    /**
+     * Returns the packed slot for the given day, medication and AM/PM index.
+     * @param epochDay the epoch day.
+     * @param medication the medication.
+     * @param index the index into the day, i.e. AM or PM.
+     * @return the packed slot, or {@link AdherenceFormat#EMPTY} if no adherence has been set.
+     */
+    public short getSlot(int epochDay, Medication medication, int index){
+        return getSlot(epochDay, medication.getName(), index);
+    }
+
+    /**
+     * Returns the packed slot for the given day, medication and AM/PM index.
+     * @param epochDay the epoch day.
+     * @param medicationName the name of the medication.
+     * @param index the index into the day, i.e. AM or PM.
+     * @return the packed slot, or {@link AdherenceFormat#EMPTY} if no adherence has been set.
+     */
+    short getSlot(int epochDay, String medicationName, int index){
+        short[] column = getColumn(medicationName);
+        int slotIndex = getSlotIndex(epochDay, index);
+        if (column == null || slotIndex < 0)
+            return AdherenceFormat.EMPTY;
+        return column[slotIndex];
+    }
+
+    /**
+     * Returns the adherence type for the given day, medication and AM/PM index. Unlike
+     * {@link #getAdherence(int, Medication, int)}, this does not allocate.
+     * @param epochDay the epoch day.
+     * @param medication the medication.
+     * @param index the index into the day, i.e. AM or PM.
+     * @return one of {@link Adherence.AdherenceType}, or null if no adherence has been set.
+     */
+    public Adherence.AdherenceType getAdherenceType(int epochDay, Medication medication, int index){
+        return AdherenceFormat.getAdherenceType(getSlot(epochDay, medication, index));
+    }
+
+    /**
+     * Returns the adherence for the given day, medication and AM/PM index. The returned object is
+     * a copy; changes must be saved using {@link #setAdherence(int, Medication, int, Adherence)}.
+     * @param epochDay the epoch day.
+     * @param medication the medication.
+     * @param index the index into the day, i.e. AM or PM.
+     * @return an {@link Adherence} object, or null if no adherence has been set.
+     */
+    public Adherence getAdherence(int epochDay, Medication medication, int index){
+        return AdherenceFormat.unpack(getSlot(epochDay, medication, index), epochDay);
+    }
+
+    /**
+     * Indicates whether any adherence has been set for the given day.
+     * @param epochDay the epoch day.
+     * @return true if at least one medication has adherence on that day.
+     */
+    public boolean contains(int epochDay){
+        int slotIndex = getSlotIndex(epochDay, 0);
+        if (slotIndex < 0)
+            return false;
+        for (short[] column : columns) {
+            for (int slot = 0; slot < SLOTS_PER_DAY; slot++) {
+                if (column[slotIndex + slot] != AdherenceFormat.EMPTY)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the adherence types of a medication over a range of days. The first count for a
+     * medication builds an {@link AdherenceIndex} in linear time; subsequent counts take
+     * logarithmic time in the number of days.
+     * @param fromDay the first epoch day of the range, inclusive.
+     * @param toDay the last epoch day of the range, exclusive.
+     * @param medication the medication.
+     * @param counts the counts, indexed by {@link Adherence.AdherenceType#ordinal()}, to which
+     *               the number of slots of each type in the range are added.
+     */
+    public void countAdherence(int fromDay, int toDay, Medication medication, int[] counts){
+        Integer column = columnIndices.get(medication.getName());
+        if (column == null)
+            return;
+        if (indices[column] == null)
+            indices[column] = new AdherenceIndex(columns[column], capacity);
+        indices[column].count(fromDay - offsetDay, toDay - offsetDay, counts);
+    }
+
+    /**
+     * Sets the adherence for the given day, medication and AM/PM index.
+     * @param epochDay the epoch day.
+     * @param medication the medication.
+     * @param index the index into the day, i.e. AM or PM.
+     * @param adherence the adherence, null to clear the slot.
+     */
+    public void setAdherence(int epochDay, Medication medication, int index, Adherence adherence){
+        setSlot(epochDay, medication.getName(), index, AdherenceFormat.pack(adherence));
+    }
+
+    /**
+     * Sets the packed slot for the given day, medication and AM/PM index.
+     * @param epochDay the epoch day.
+     * @param medicationName the name of the medication.
+     * @param index the index into the day, i.e. AM or PM.
+     * @param slot the packed slot, see {@link AdherenceFormat#pack(Adherence.AdherenceType, int)}.
+     */
+    void setSlot(int epochDay, String medicationName, int index, short slot){
+        if (index < 0 || index >= SLOTS_PER_DAY)
+            throw new IndexOutOfBoundsException("Invalid adherence index " + index);
+        Integer column = columnIndices.get(medicationName);
+        if (column == null) {
+            if (slot == AdherenceFormat.EMPTY)
+                return; // nothing to clear
+            column = addColumn(medicationName);
+        }
+        ensureCapacity(epochDay);
+        int slotIndex = getSlotIndex(epochDay, index);
+        if (indices[column] != null)
+            indices[column].update(epochDay - offsetDay, columns[column][slotIndex], slot);
+        columns[column][slotIndex] = slot;
+        firstDay = Math.min(firstDay, epochDay);
+        lastDay = Math.max(lastDay, epochDay);
+    }
+
+    /**
+     * Adds an empty column for the given medication.
+     * @param medicationName the name of the medication.
+     * @return the index of the new column.
+     */
+    private int addColumn(String medicationName){
+        int column = columns.length;
+        short[][] newColumns = new short[column + 1][];
+        System.arraycopy(columns, 0, newColumns, 0, column);
+        newColumns[column] = new short[capacity * SLOTS_PER_DAY];
+        columns = newColumns;
+        indices = Arrays.copyOf(indices, column + 1);
+        columnIndices.put(medicationName, column);
+        medicationNames.add(medicationName);
+        return column;
+    }
+
+    /**
+     * Ensures that space is allocated for the given day. The columns grow by at least a factor of
+     * two, towards the past or the future depending on where the day lies.
+     * @param epochDay the epoch day.
+     */
+    private void ensureCapacity(int epochDay){
+        if (capacity == 0) {
+            offsetDay = epochDay;
+            capacity = INITIAL_CAPACITY;
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = new short[capacity * SLOTS_PER_DAY];
+            Arrays.fill(indices, null);
+            return;
+        }
+        if (getSlotIndex(epochDay, 0) >= 0)
+            return;
+        int required = Math.max(offsetDay + capacity, epochDay + 1) - Math.min(offsetDay, epochDay);
+        int newCapacity = Math.max(2 * capacity, required);
+        int newOffsetDay = epochDay < offsetDay ? offsetDay + capacity - newCapacity : offsetDay;
+        for (int i = 0; i < columns.length; i++) {
+            short[] column = new short[newCapacity * SLOTS_PER_DAY];
+            System.arraycopy(columns[i], 0, column, (offsetDay - newOffsetDay) * SLOTS_PER_DAY, columns[i].length);
+            columns[i] = column;
+        }
+        offsetDay = newOffsetDay;
+        capacity = newCapacity;
+        Arrays.fill(indices, null); // rebuilt on the next count
+    }
+
+    /**
+     * Converts adherence data as stored by previous versions, i.e. a mapping from date keys to
+     * medications to adherence objects.
+     * @param adherenceData the adherence data.
+     * @return a new adherence store containing the same adherence.
+     */
+    static AdherenceStore fromMap(Map<Calendar, Map<Medication, Adherence[]>> adherenceData){
+        AdherenceStore store = new AdherenceStore();
+        for (Map.Entry<Calendar, Map<Medication, Adherence[]>> entry : adherenceData.entrySet()) {
+            int epochDay = Utils.getEpochDay(entry.getKey());
+            for (Map.Entry<Medication, Adherence[]> dailyAdherence : entry.getValue().entrySet()) {
+                Adherence[] adherence = dailyAdherence.getValue();
+                for (int index = 0; index < Math.min(adherence.length, SLOTS_PER_DAY); index++)
+                    store.setAdherence(epochDay, dailyAdherence.getKey(), index, adherence[index]);
+            }
+        }
+        return store;
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty())
+            return "AdherenceStore" + medicationNames + " (empty)";
+        return "AdherenceStore" + medicationNames + " from " + Utils.formatEpochDay(firstDay)
+                + " to " + Utils.formatEpochDay(lastDay);
+    }
+}
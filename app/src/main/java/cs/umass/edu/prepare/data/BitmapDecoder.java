@@ -0,0 +1,126 @@
+package cs.umass.edu.prepare.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes encoded images, e.g. PNGs, read in bulk into a pooled buffer rather than byte by byte,
+ * optionally downsampling them to the size at which they are displayed.
+ */
+class BitmapDecoder {
+
+    /** The initial size of the pooled buffer, large enough for a typical medication image. */
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    /** A buffer reused across decodes. Null while in use by another thread. */
+    private static byte[] pooledBuffer;
+
+    private BitmapDecoder(){}
+
+    /**
+     * Obtains a buffer of at least the given size, reusing the pooled buffer if possible. The
+     * buffer must be returned using {@link #releaseBuffer(byte[])}.
+     * @param size the minimum size of the buffer.
+     * @return a buffer.
+     */
+    static synchronized byte[] obtainBuffer(int size){
+        byte[] buffer = pooledBuffer;
+        pooledBuffer = null;
+        if (buffer == null || buffer.length < size)
+            buffer = new byte[Math.max(size, INITIAL_BUFFER_SIZE)];
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     * @param buffer a buffer obtained using {@link #obtainBuffer(int)}.
+     */
+    static synchronized void releaseBuffer(byte[] buffer){
+        if (pooledBuffer == null || buffer.length > pooledBuffer.length)
+            pooledBuffer = buffer;
+    }
+
+    /**
+     * Reads exactly the given number of bytes into a pooled buffer.
+     * @param in the input from which to read.
+     * @param length the number of bytes to read.
+     * @return a pooled buffer containing the bytes, to be returned using {@link #releaseBuffer(byte[])}.
+     * @throws IOException if fewer bytes are available.
+     */
+    static byte[] readFully(DataInput in, int length) throws IOException {
+        byte[] buffer = obtainBuffer(length);
+        try {
+            in.readFully(buffer, 0, length);
+        } catch (IOException e) {
+            releaseBuffer(buffer);
+            throw e;
+        }
+        return buffer;
+    }
+
+    /**
+     * Reads the remaining bytes of a stream of unknown length in large chunks into a pooled buffer.
+     * @param in the input from which to read.
+     * @param prefix bytes already consumed from the stream, which are placed at the start of the buffer.
+     * @param length receives the number of valid bytes in the buffer at index 0.
+     * @return a pooled buffer containing the bytes, to be returned using {@link #releaseBuffer(byte[])}.
+     * @throws IOException if the stream could not be read.
+     */
+    static byte[] readRemaining(InputStream in, byte[] prefix, int[] length) throws IOException {
+        byte[] buffer = obtainBuffer(INITIAL_BUFFER_SIZE);
+        System.arraycopy(prefix, 0, buffer, 0, prefix.length);
+        int count = prefix.length;
+        try {
+            int n;
+            while ((n = in.read(buffer, count, buffer.length - count)) != -1) {
+                count += n;
+                if (count == buffer.length) {
+                    byte[] larger = new byte[2 * buffer.length];
+                    System.arraycopy(buffer, 0, larger, 0, count);
+                    buffer = larger;
+                }
+            }
+        } catch (IOException e) {
+            releaseBuffer(buffer);
+            throw e;
+        }
+        length[0] = count;
+        return buffer;
+    }
+
+    /**
+     * Decodes an image, downsampling it by a power of two so that it is no smaller than the
+     * requested size. If no size is requested, the image is decoded at full size.
+     * @param data the encoded image.
+     * @param length the number of bytes of the encoded image.
+     * @param reqWidth the width at which the image is displayed, or 0 for full size.
+     * @param reqHeight the height at which the image is displayed, or 0 for full size.
+     * @return the decoded image, or null if it could not be decoded.
+     */
+    static Bitmap decode(byte[] data, int length, int reqWidth, int reqHeight){
+        if (reqWidth <= 0 || reqHeight <= 0)
+            return BitmapFactory.decodeByteArray(data, 0, length);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeByteArray(data, 0, length, options);
+    }
+
+    /**
+     * Returns the largest power of two by which an image can be downsampled such that both its
+     * dimensions remain at least as large as the requested dimensions.
+     * see https://developer.android.com/topic/performance/graphics/load-bitmap.html
+     */
+    static int getSampleSize(int width, int height, int reqWidth, int reqHeight){
+        int sampleSize = 1;
+        while (width / (2 * sampleSize) >= reqWidth && height / (2 * sampleSize) >= reqHeight)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+}
@@ -0,0 +1,110 @@
+package cs.umass.edu.prepare.data;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Describes a change to the data managed by the {@link DataIO}, namely which data sets changed
+ * and, for adherence data, the range of dates affected, so that listeners can update only what
+ * changed rather than reloading all data. Several data sets change together when a
+ * {@link DataIO.Transaction} is committed.
+ */
+public class DataChangeEvent {
+
+    /**
+     * The data sets managed by the {@link DataIO}.
+     */
+    public enum DataSet {
+        MEDICATIONS,
+        DOSAGE_MAPPING,
+        SCHEDULE,
+        ADHERENCE_DATA,
+        ADDRESS_MAPPING,
+        REMINDERS
+    }
+
+    private final Set<DataSet> dataSets;
+
+    /** The first affected epoch day, inclusive. **/
+    private final int fromEpochDay;
+
+    /** The last affected epoch day, inclusive. **/
+    private final int toEpochDay;
+
+    /**
+     * Creates an event indicating that the given data set has been replaced entirely.
+     * @param dataSet the data set.
+     */
+    DataChangeEvent(DataSet dataSet){
+        this(dataSet, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates an event indicating that the given dates of the given data set have changed.
+     * @param dataSet the data set, typically {@link DataSet#ADHERENCE_DATA}.
+     * @param fromEpochDay the first affected date, see {@link cs.umass.edu.prepare.util.Utils#getEpochDay(int, int, int)}.
+     * @param toEpochDay the last affected date, inclusive.
+     */
+    DataChangeEvent(DataSet dataSet, int fromEpochDay, int toEpochDay){
+        this(EnumSet.of(dataSet), fromEpochDay, toEpochDay);
+    }
+
+    /**
+     * Creates an event indicating that the given data sets have changed together.
+     * @param dataSets the data sets. Only the adherence data may have changed partially.
+     * @param fromEpochDay the first affected date of the adherence data.
+     * @param toEpochDay the last affected date of the adherence data, inclusive.
+     */
+    DataChangeEvent(EnumSet<DataSet> dataSets, int fromEpochDay, int toEpochDay){
+        this.dataSets = Collections.unmodifiableSet(dataSets);
+        this.fromEpochDay = fromEpochDay;
+        this.toEpochDay = toEpochDay;
+    }
+
+    /**
+     * Returns the data sets which changed, in the order in which they are declared.
+     */
+    public Set<DataSet> getDataSets(){
+        return dataSets;
+    }
+
+    public boolean contains(DataSet dataSet){
+        return dataSets.contains(dataSet);
+    }
+
+    public int getFromEpochDay(){
+        return fromEpochDay;
+    }
+
+    public int getToEpochDay(){
+        return toEpochDay;
+    }
+
+    /**
+     * Indicates whether the entire data sets have been replaced, in which case listeners holding
+     * a reference to the data should request it again.
+     * @return true if the data sets have been replaced, false if only some dates changed.
+     */
+    public boolean isReplaced(){
+        return fromEpochDay == Integer.MIN_VALUE && toEpochDay == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Indicates whether any date in the given range has changed.
+     * @param fromEpochDay the first date of the range.
+     * @param toEpochDay the last date of the range, inclusive.
+     * @return true if the ranges overlap.
+     */
+    public boolean affects(int fromEpochDay, int toEpochDay){
+        return this.fromEpochDay <= toEpochDay && fromEpochDay <= this.toEpochDay;
+    }
+
+    @Override
+    public String toString() {
+        if (isReplaced())
+            return dataSets.toString();
+        return String.format(Locale.getDefault(), "%s [%d, %d]", dataSets, fromEpochDay, toEpochDay);
+    }
+}
@@ -0,0 +1,181 @@
+package cs.umass.edu.prepare.data;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * A file which is replaced atomically and whose contents are checksummed, so that a write
+ * interrupted by the application being killed can never leave a truncated file behind.
+ *
+ * A new version is written to a temporary file, synced to disk and then renamed over the
+ * file, after the current version has been renamed to a backup. Each version begins with a
+ * header:
+ *
+ * <pre>
+ * int     magic number, see {@link #MAGIC}
+ * int     length L of the contents
+ * int     CRC-32 of the contents
+ * byte[L] the contents
+ * </pre>
+ *
+ * If the file is missing, truncated or fails its checksum, the previous version is read from
+ * the backup instead. Files written by previous versions have no header; their contents are
+ * read as is.
+ */
+class DataFile {
+
+    /** used for debugging purposes */
+    private static final String TAG = DataFile.class.getName();
+
+    /** Identifies a checksummed file, as opposed to a file written by a previous version. */
+    static final int MAGIC = 0x50524446; // "PRDF"
+
+    /** The number of bytes preceding the contents. */
+    private static final int HEADER_SIZE = 12;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    /** The file holding the current version. */
+    private final File file;
+
+    /** The file to which a new version is written before it replaces the current version. */
+    private final File tempFile;
+
+    /** The file holding the previous version. */
+    private final File backupFile;
+
+    DataFile(File directory, String filename){
+        file = new File(directory, filename);
+        tempFile = new File(directory, filename + TEMP_SUFFIX);
+        backupFile = new File(directory, filename + BACKUP_SUFFIX);
+    }
+
+    /**
+     * Atomically replaces the contents of the file. The current version is kept as a backup.
+     * @param contents the new contents.
+     * @throws IOException if the new version could not be written, in which case the current
+     * version is left in place.
+     */
+    void write(byte[] contents) throws IOException {
+        writeTemp(contents);
+        commitTemp();
+    }
+
+    /**
+     * Writes a new version of the file without replacing the current version, so that several
+     * files can be written before any of them is replaced, see {@link #commitTemp()}.
+     * @param contents the new contents.
+     * @throws IOException if the new version could not be written.
+     */
+    void writeTemp(byte[] contents) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(contents, 0, contents.length);
+
+        FileOutputStream fileStream = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream outputStream = new DataOutputStream(fileStream);
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(contents.length);
+            outputStream.writeInt((int) crc.getValue());
+            outputStream.write(contents);
+            outputStream.flush();
+            fileStream.getFD().sync(); // the rename must not reach the disk before the contents
+        } finally {
+            fileStream.close();
+        }
+    }
+
+    /**
+     * Replaces the current version with the version written by {@link #writeTemp(byte[])}. The
+     * current version is kept as a backup.
+     * @throws IOException if the current version could not be replaced.
+     */
+    void commitTemp() throws IOException {
+        if (file.exists() && !file.renameTo(backupFile))
+            throw new IOException("Failed to back up " + file);
+        if (!tempFile.renameTo(file))
+            throw new IOException("Failed to replace " + file); // the backup is read instead
+    }
+
+    /**
+     * Indicates whether a new version has been written but has not replaced the current version.
+     */
+    boolean hasTemp(){
+        return tempFile.exists();
+    }
+
+    /**
+     * Discards a new version written by {@link #writeTemp(byte[])}.
+     */
+    void discardTemp(){
+        if (tempFile.exists() && !tempFile.delete())
+            Log.w(TAG, "Failed to delete " + tempFile);
+    }
+
+    /**
+     * Deletes all versions of the file.
+     */
+    void delete(){
+        for (File version : new File[]{file, tempFile, backupFile})
+            if (version.exists() && !version.delete())
+                Log.w(TAG, "Failed to delete " + version);
+    }
+
+    /**
+     * Reads the contents of the most recent intact version of the file.
+     * @return the contents.
+     * @throws FileNotFoundException if no version of the file exists.
+     * @throws IOException if no intact version of the file could be read.
+     */
+    byte[] read() throws IOException {
+        if (file.exists()) {
+            try {
+                return read(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Corrupt data file " + file + ", reading the previous version: " + e.getMessage());
+            }
+        }
+        if (backupFile.exists())
+            return read(backupFile);
+        throw new FileNotFoundException(file + " does not exist");
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+        try {
+            inputStream.readFully(bytes);
+        } finally {
+            inputStream.close();
+        }
+        if (bytes.length < HEADER_SIZE || readInt(bytes, 0) != MAGIC)
+            return bytes; // written by a previous version without a header
+
+        int length = readInt(bytes, 4);
+        if (length < 0 || length > bytes.length - HEADER_SIZE)
+            throw new EOFException("Truncated data file, expected " + length + " bytes");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, length);
+        if ((int) crc.getValue() != readInt(bytes, 8))
+            throw new IOException("Checksum mismatch");
+        byte[] contents = new byte[length];
+        System.arraycopy(bytes, HEADER_SIZE, contents, 0, length);
+        return contents;
+    }
+
+    private static int readInt(byte[] bytes, int offset){
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+}
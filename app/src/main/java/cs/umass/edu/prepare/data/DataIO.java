@@ -1,31 +1,52 @@
 package cs.umass.edu.prepare.data;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.util.Log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cs.umass.edu.prepare.util.Utils;
 
 /**
  * This class is responsible for reading and writing data to disk and managing
- * data shared across application components.
+ * data shared across application components. Data is read and set on several threads, e.g. the
+ * UI thread and the thread of the MHL client, so all public accessors are synchronized.
  */
 public class DataIO {
 
+    /** used for debugging purposes */
+    private static final String TAG = DataIO.class.getName();
+
     /** The list of medications. **/
     private ArrayList<Medication> medications;
 
-    /** The entire adherence data. Date is stored in a tree map because dates are naturally ordered. **/
-    private Map<Calendar, Map<Medication, Adherence[]>> adherenceData;
+    /** The entire adherence data, keyed by epoch day. **/
+    private AdherenceStore adherenceStore;
+
+    /** The version of the server's adherence data which the adherence data corresponds to. **/
+    private long adherenceVersion = NO_VERSION;
+
+    /** Indicates that the adherence data does not correspond to a known version of the server's adherence data. **/
+    public static final long NO_VERSION = -1;
 
     /** Maps a medication to a dosage **/
     private Map<Medication, Integer> dosageMapping; // in mg
@@ -47,53 +68,252 @@ public class DataIO {
         String ADHERENCE_DATA = "adherence_data";
         String ADDRESS_MAPPING = "address_mapping";
         String REMINDERS = "reminders";
+        String ADHERENCE_JOURNAL = "adherence_journal";
+        String ADHERENCE_VERSION = "adherence_version";
+        String TRANSACTION = "transaction";
     }
 
     private static final String DIRECTORY = "data";
 
+    /** Indicates that the adherence data on disk is a serialized Java object written by a previous version. **/
+    private boolean adherenceDataMigrationRequired = false;
+
+    /** Records individual adherence mutations, so that a single dose does not rewrite the entire adherence data. **/
+    private AdherenceJournal adherenceJournal;
+
+    /** Writes data to disk on a background thread, so that setting data never blocks on disk. **/
+    private final DataWriter writer = new DataWriter();
+
+    /** The files which have been read from disk or set, see {@link #isLoaded(String)}. Guarded by this. **/
+    private final Set<String> loadedFiles = new HashSet<>();
+
+    /**
+     * Notified whenever data is set. The event indicates which data set changed, and for
+     * adherence data which dates, so that listeners can update incrementally.
+     */
     public interface OnDataChangedListener {
-        void onDataChanged();
+        void onDataChanged(DataChangeEvent event);
     }
 
-    private final List<OnDataChangedListener> onDataChangedListeners = new ArrayList<>();
+    /** Listeners may be added and removed on any thread, while data is set on another. **/
+    private final List<OnDataChangedListener> onDataChangedListeners = new CopyOnWriteArrayList<>();
 
     public void addOnDataChangedListener(OnDataChangedListener onDataChangedListener){
         this.onDataChangedListeners.add(onDataChangedListener);
     }
 
-    public static DataIO getInstance(Context context){
+    public void removeOnDataChangedListener(OnDataChangedListener onDataChangedListener){
+        this.onDataChangedListeners.remove(onDataChangedListener);
+    }
+
+    public static synchronized DataIO getInstance(Context context){
         if (instance == null)
             instance = new DataIO(context);
         return instance;
     }
 
     private DataIO(Context context){
-        loadPreferences(context);
+        // files are loaded individually when first requested
+        recoverTransaction(context.getDir(DIRECTORY, Context.MODE_PRIVATE));
     }
 
+    /**
+     * Indicates whether a file has been loaded. Files are loaded individually when first
+     * requested. A file which does not exist is also marked as loaded, so that it is not read
+     * again each time the data is requested before it is first set.
+     * @param filename the file.
+     * @return false if the file has not been loaded yet, in which case it should be read now.
+     */
+    private boolean isLoaded(String filename){
+        return loadedFiles.contains(filename);
+    }
+
+    /**
+     * Marks a file as loaded, once the data it holds has been assigned.
+     * @param filename the file.
+     */
+    private void markLoaded(String filename){
+        loadedFiles.add(filename);
+    }
+
+    /**
+     * Reads the adherence data from disk and applies the adherence mutations journaled since.
+     * @param context a context required to access storage.
+     */
+    private void loadAdherenceData(Context context){
+        adherenceStore = readAdherenceData(context);
+        adherenceVersion = readAdherenceVersion(context);
+        replayAdherenceJournal(context);
+        if (adherenceDataMigrationRequired) {
+            compactAdherenceJournal(context); // rewrites the adherence data in the compact format
+            adherenceDataMigrationRequired = false;
+        }
+    }
+
+    /**
+     * Moves medication images embedded in the data written by previous versions into the
+     * {@link ImageStore}. If any image was migrated, the file from which the medications were
+     * read should be rewritten, so that it only references the images.
+     * @param context a context required to access storage.
+     * @param medications the medications read from a file.
+     * @return true if any image was migrated.
+     */
+    private static boolean migrateImages(Context context, Collection<Medication> medications){
+        ImageStore imageStore = ImageStore.getInstance(context);
+        boolean migrated = false;
+        for (Medication medication : medications) {
+            if (medication != null && medication.migrateImages(imageStore))
+                migrated = true;
+        }
+        return migrated;
+    }
+
+    /**
+     * Reads the adherence data from disk. The adherence data is stored in the compact
+     * {@link AdherenceFormat}, but adherence data serialized as a Java object by previous
+     * versions can still be read, in which case it is migrated to the compact format.
+     * @param context a context required to access storage.
+     * @return the adherence data, or null if it could not be read.
+     */
     @SuppressWarnings("unchecked")
-    private void loadPreferences(Context context){
-        medications = (ArrayList<Medication>) readObject(context, FILENAME.MEDICATIONS);
-        dosageMapping = (Map<Medication, Integer>) readObject(context, FILENAME.DOSAGE_MAPPING);
-        schedule = (Map<Medication, Calendar[]>) readObject(context, FILENAME.SCHEDULE);
-        adherenceData = (Map<Calendar, Map<Medication, Adherence[]>>) readObject(context, FILENAME.ADHERENCE_DATA);
-        addressMapping = (Map<String, Medication>) readObject(context, FILENAME.ADDRESS_MAPPING);
-        reminders = (TreeSet<Integer>) readObject(context, FILENAME.REMINDERS);
+    private AdherenceStore readAdherenceData(Context context){
+        AdherenceStore adherenceStore = null;
+        try {
+            byte[] bytes = getDataFile(context, FILENAME.ADHERENCE_DATA).read();
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(bytes));
+            try {
+                if (AdherenceFormat.isAdherenceFormat(inputStream)) {
+                    adherenceStore = AdherenceFormat.read(inputStream);
+                } else {
+                    adherenceStore = AdherenceStore.fromMap((Map<Calendar, Map<Medication, Adherence[]>>) new ObjectInputStream(inputStream).readObject());
+                    adherenceDataMigrationRequired = true;
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, FILENAME.ADHERENCE_DATA + " has not been written yet.");
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return adherenceStore;
     }
 
     /**
-     * Reads an object from disk. TODO : Should this be done on a background thread?
+     * Reads the version of the server's adherence data which the adherence data on disk
+     * corresponds to, see {@link #applyAdherenceDelta(Context, AdherenceDelta, long, long)}.
+     * @param context a context required to access storage.
+     * @return the version, or {@link #NO_VERSION} if unknown.
+     */
+    private long readAdherenceVersion(Context context){
+        try {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(getDataFile(context, FILENAME.ADHERENCE_VERSION).read()));
+            return inputStream.readLong();
+        } catch (FileNotFoundException e) {
+            return NO_VERSION;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return NO_VERSION; // forces a full resync
+        }
+    }
+
+    private static byte[] encodeVersion(long version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(bytes);
+        outputStream.writeLong(version);
+        outputStream.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the journal of adherence mutations made since the last adherence snapshot.
+     * @param context a context required to access storage.
+     * @return the adherence journal.
+     */
+    private AdherenceJournal getAdherenceJournal(Context context){
+        if (adherenceJournal == null) {
+            File file = new File(context.getDir(DIRECTORY, Context.MODE_PRIVATE), FILENAME.ADHERENCE_JOURNAL);
+            adherenceJournal = new AdherenceJournal(file);
+        }
+        return adherenceJournal;
+    }
+
+    /**
+     * Applies the adherence mutations recorded in the journal to the adherence data loaded from
+     * the last snapshot. If the journal has grown too large, it is compacted into a new snapshot.
+     * @param context a context required to access storage.
+     */
+    private void replayAdherenceJournal(Context context){
+        AdherenceJournal journal = getAdherenceJournal(context);
+        journal.replay((epochDay, medicationName, index, adherenceType, timeTaken) -> {
+            if (adherenceStore == null)
+                adherenceStore = new AdherenceStore();
+            Adherence adherence = null;
+            if (adherenceType != null)
+                adherence = new Adherence(adherenceType, timeTaken < 0 ? null : Utils.timestampToCalendar(timeTaken));
+            adherenceStore.setSlot(epochDay, medicationName, index, AdherenceFormat.pack(adherence));
+        });
+        if (journal.shouldCompact())
+            compactAdherenceJournal(context);
+    }
+
+    /**
+     * Writes the current adherence data and its version to disk as a new snapshot and then
+     * discards the journal, in a single operation on the writer thread, so that the journal is
+     * only discarded once the snapshot has been written. Journal records which are still pending
+     * are written first, so that they are not lost if the snapshot cannot be written.
+     * @param context a context required to access storage.
+     */
+    private void compactAdherenceJournal(Context context){
+        final AdherenceJournal journal = getAdherenceJournal(context);
+        final Map<String, byte[]> contents = new LinkedHashMap<>();
+        try {
+            if (adherenceStore != null)
+                contents.put(FILENAME.ADHERENCE_DATA, encode(adherenceStore, FILENAME.ADHERENCE_DATA));
+            contents.put(FILENAME.ADHERENCE_VERSION, encodeVersion(adherenceVersion));
+        } catch (IOException e) {
+            e.printStackTrace(); // the journal is kept and compacted on the next change
+            return;
+        }
+        final File directory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
+        journal.setCompactionPending(true); // so that changes until the reset do not compact again
+        writer.append(FILENAME.ADHERENCE_JOURNAL, () -> {
+            try {
+                writeTransaction(directory, contents);
+            } catch (IOException e) {
+                journal.setCompactionPending(false); // compacted again on the next change
+                throw e;
+            }
+            journal.reset(); // only once the snapshot is written
+        });
+    }
+
+    /**
+     * Returns the checksummed, atomically replaced file holding the given data.
+     * @param context a context required to access storage.
+     * @param filename the name of the file.
+     * @return the data file.
+     */
+    private static DataFile getDataFile(Context context, String filename){
+        return new DataFile(context.getDir(DIRECTORY, Context.MODE_PRIVATE), filename);
+    }
+
+    /**
+     * Reads an object from disk. If the file is corrupt, e.g. because the application was
+     * killed while writing it, the previous version of the file is read instead.
+     * TODO : Should this be done on a background thread?
      * @param context a context required to access storage.
      * @param filename the file from which to read the data.
      * @return an object containing the data read from the specified file.
      */
     private Object readObject(Context context, String filename) {
         Object object = null;
-        File file = new File(context.getDir(DIRECTORY, Context.MODE_PRIVATE), filename);
         try {
-            ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(file));
+            ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(getDataFile(context, filename).read()));
             object = inputStream.readObject();
             inputStream.close();
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, filename + " has not been written yet.");
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
@@ -101,118 +321,517 @@ public class DataIO {
     }
 
     /**
-     * An asynchronous task for writing data to disk.
+     * Encodes data for writing to disk. Adherence data is encoded in the compact
+     * {@link AdherenceFormat}; all other data is encoded as serialized Java objects.
+     * @param object the data to encode.
+     * @param filename the file to which the data is written.
+     * @return the encoded data.
+     * @throws IOException if the data could not be encoded.
+     */
+    private static byte[] encode(Object object, String filename) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (filename.equals(FILENAME.ADHERENCE_DATA)) {
+            DataOutputStream outputStream = new DataOutputStream(bytes);
+            AdherenceFormat.write((AdherenceStore) object, outputStream);
+            outputStream.close();
+        } else {
+            ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+            outputStream.writeObject(object);
+            outputStream.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Schedules an object to be written to disk on the writer thread, atomically replacing the
+     * previous version of the file, see {@link DataFile}. The object is encoded
+     * immediately, so that it may be modified by the caller while the write is pending; if the
+     * same file is written again before the pending write is performed, only the latest version
+     * is written.
+     * @param context a context required to access storage.
+     * @param object the data to write to disk.
+     * @param filename the file to which to write the data.
      */
-    private class WriteOperation extends AsyncTask<Object, Void, Void> {
+    private void scheduleWrite(Context context, Object object, String filename){
+        final byte[] bytes;
+        try {
+            bytes = encode(object, filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        final DataFile dataFile = getDataFile(context, filename);
+        writer.write(filename, () -> dataFile.write(bytes));
+    }
 
-        private final Context context;
+    /**
+     * Writes an object to disk in a background thread and notifies listeners that the data set
+     * has been replaced.
+     * @param context a context required to access storage.
+     * @param object the data to write to disk.
+     * @param filename the file to which to write the data.
+     * @param dataSet the data set held by the file.
+     */
+    private void writeObject(Context context, Object object, String filename, DataChangeEvent.DataSet dataSet){
+        markLoaded(filename); // the data set replaces the data on disk
+        scheduleWrite(context, object, filename);
+        notifyDataChanged(new DataChangeEvent(dataSet));
+    }
 
-        WriteOperation(Context context){
-            super();
-            this.context = context;
+    /**
+     * Writes several files such that either all or none of them are replaced, even if the
+     * application is killed midway. All new versions are written first, then the names of the
+     * files are written to a transaction log, which marks the transaction as committed, and only
+     * then are the files replaced. Always called on the writer thread.
+     * @param directory the directory containing the files.
+     * @param contents maps the name of each file to its new contents.
+     * @throws IOException if the transaction could not be committed.
+     */
+    private static void writeTransaction(File directory, Map<String, byte[]> contents) throws IOException {
+        List<DataFile> dataFiles = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream log = new DataOutputStream(bytes);
+        log.writeInt(contents.size());
+        try {
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                DataFile dataFile = new DataFile(directory, entry.getKey());
+                dataFiles.add(dataFile);
+                dataFile.writeTemp(entry.getValue());
+                log.writeUTF(entry.getKey());
+            }
+        } catch (IOException e) {
+            for (DataFile dataFile : dataFiles)
+                dataFile.discardTemp(); // no file has been replaced yet
+            throw e;
         }
+        log.close();
 
-        @Override
-        protected Void doInBackground(Object... params) {
-            Object object = params[0];
-            String filename = (String) params[1];
+        DataFile transactionLog = new DataFile(directory, FILENAME.TRANSACTION);
+        transactionLog.write(bytes.toByteArray()); // the transaction is now committed
+        for (DataFile dataFile : dataFiles)
+            dataFile.commitTemp();
+        transactionLog.delete();
+    }
 
-            File file = new File(context.getDir(DIRECTORY, Context.MODE_PRIVATE), filename);
-            try {
-                ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(file));
-                outputStream.writeObject(object);
-                outputStream.flush();
-                outputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Completes a transaction which was committed but whose files were not all replaced, e.g.
+     * because the application was killed, see {@link #writeTransaction(File, Map)}. A transaction
+     * which was not committed leaves only temporary files behind, which are overwritten later.
+     * @param directory the directory containing the files.
+     */
+    private static void recoverTransaction(File directory){
+        DataFile transactionLog = new DataFile(directory, FILENAME.TRANSACTION);
+        try {
+            DataInputStream log = new DataInputStream(new ByteArrayInputStream(transactionLog.read()));
+            int size = log.readInt();
+            for (int i = 0; i < size; i++) {
+                DataFile dataFile = new DataFile(directory, log.readUTF());
+                if (dataFile.hasTemp())
+                    dataFile.commitTemp();
             }
-            return null;
+            Log.w(TAG, "Recovered interrupted transaction of " + size + " files.");
+        } catch (FileNotFoundException e) {
+            return; // no transaction was interrupted
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        transactionLog.delete();
+    }
+
+    private void notifyDataChanged(DataChangeEvent event){
+        for (OnDataChangedListener onDataChangedListener : onDataChangedListeners)
+            onDataChangedListener.onDataChanged(event);
+    }
 
-        @Override
-        protected void onPostExecute(Void result) {}
+    /**
+     * Blocks until all pending writes have been written to disk. This should be called when the
+     * application is shut down, e.g. when a service is stopped.
+     */
+    public void flush(){
+        writer.flush();
+    }
 
-        @Override
-        protected void onPreExecute() {}
+    public synchronized void setMedications(Context context, ArrayList<Medication> medications){
+        this.medications = medications;
+        writeObject(context, medications, FILENAME.MEDICATIONS, DataChangeEvent.DataSet.MEDICATIONS);
+    }
 
-        @Override
-        protected void onProgressUpdate(Void... values) {}
+    /**
+     * Replaces the adherence data. The adherence data then no longer corresponds to a known
+     * version of the server's adherence data.
+     * @param context a context required to access storage.
+     * @param adherenceStore the new adherence data.
+     */
+    public void setAdherenceData(Context context, AdherenceStore adherenceStore){
+        setAdherenceData(context, adherenceStore, NO_VERSION);
     }
 
     /**
-     * Writes an object to disk in a background thread.
+     * Replaces the adherence data with the server's adherence data, e.g. on a full resync.
      * @param context a context required to access storage.
-     * @param object the data to write to disk.
-     * @param filename the file to which to write the data.
+     * @param adherenceStore the new adherence data.
+     * @param version the version of the server's adherence data, or {@link #NO_VERSION}.
      */
-    private void writeObject(Context context, Object object, String filename){
-        new WriteOperation(context).doInBackground(object, filename);
-        this.onDataChangedListeners.forEach(OnDataChangedListener::onDataChanged);
+    public synchronized void setAdherenceData(Context context, AdherenceStore adherenceStore, long version){
+        this.adherenceStore = adherenceStore;
+        this.adherenceVersion = version;
+        markLoaded(FILENAME.ADHERENCE_DATA); // the data set replaces the data on disk
+        compactAdherenceJournal(context); // the snapshot now includes all journaled changes
+        notifyDataChanged(new DataChangeEvent(DataChangeEvent.DataSet.ADHERENCE_DATA));
     }
 
-    public void setMedications(Context context, ArrayList<Medication> medications){
-        this.medications = medications;
-        writeObject(context, medications, FILENAME.MEDICATIONS);
+    /**
+     * Returns the version of the server's adherence data which the adherence data corresponds to.
+     * @param context a context required to access storage.
+     * @return the version, or {@link #NO_VERSION} if the adherence data has been replaced locally
+     * or was never received from the server.
+     */
+    public synchronized long getAdherenceVersion(Context context){
+        getAdherenceData(context);
+        return adherenceVersion;
+    }
+
+    /**
+     * Applies the changes made to the server's adherence data since a given version. Only the
+     * changed slots are written to disk, by appending them to the adherence journal.
+     * @param context a context required to access storage.
+     * @param delta the changes.
+     * @param baseVersion the version of the server's adherence data to which the changes apply.
+     * @param version the version of the server's adherence data after the changes.
+     * @return true if the changes were applied, false if the adherence data does not correspond
+     * to the base version, in which case a full resync is required.
+     */
+    public synchronized boolean applyAdherenceDelta(Context context, AdherenceDelta delta, long baseVersion, long version){
+        if (baseVersion == NO_VERSION || baseVersion != getAdherenceVersion(context))
+            return false;
+        applyAdherenceDelta(context, delta, version);
+        if (!delta.isEmpty())
+            notifyDataChanged(new DataChangeEvent(DataChangeEvent.DataSet.ADHERENCE_DATA, delta.getFirstDay(), delta.getLastDay()));
+        return true;
+    }
+
+    /**
+     * Applies an adherence delta, journaling the changed slots, without notifying listeners.
+     * The base version must already have been checked.
+     */
+    private void applyAdherenceDelta(Context context, AdherenceDelta delta, long version){
+        if (getAdherenceData(context) == null)
+            adherenceStore = new AdherenceStore();
+        delta.applyTo(adherenceStore);
+        adherenceVersion = version;
+
+        // the version is written only once the changes are journaled; if they cannot be, the
+        // journal is torn and the version is written with the next snapshot instead, so that the
+        // version on disk never covers changes which did not reach the disk
+        final AdherenceJournal journal = getAdherenceJournal(context);
+        final DataFile versionFile = getDataFile(context, FILENAME.ADHERENCE_VERSION);
+        writer.append(FILENAME.ADHERENCE_JOURNAL, () -> {
+            journal.append(delta);
+            if (!journal.isTorn())
+                versionFile.write(encodeVersion(version));
+        });
+        if (journal.shouldCompact())
+            compactAdherenceJournal(context);
+    }
+
+    /**
+     * Begins a transaction, in which several data sets are replaced together, e.g. when the
+     * server sends an update. See {@link Transaction}.
+     * @return a new transaction.
+     */
+    public Transaction beginTransaction(){
+        return new Transaction();
+    }
+
+    /**
+     * Stages changes to several data sets and applies them together: the staged data sets are
+     * written to disk in a single write such that either all or none of them reach the disk,
+     * and listeners are notified once, with a single {@link DataChangeEvent} covering all
+     * staged data sets. Nothing is changed until the transaction is committed.
+     */
+    public class Transaction {
+
+        /** The staged data sets, keyed by file name, in the order in which they were staged. **/
+        private final Map<String, Object> staged = new LinkedHashMap<>();
+
+        private final EnumSet<DataChangeEvent.DataSet> dataSets = EnumSet.noneOf(DataChangeEvent.DataSet.class);
+
+        private long adherenceVersion = NO_VERSION;
+
+        private AdherenceDelta adherenceDelta;
+
+        private Transaction(){}
+
+        public Transaction setMedications(ArrayList<Medication> medications){
+            return stage(FILENAME.MEDICATIONS, medications, DataChangeEvent.DataSet.MEDICATIONS);
+        }
+
+        public Transaction setSchedule(Map<Medication, Calendar[]> schedule){
+            return stage(FILENAME.SCHEDULE, schedule, DataChangeEvent.DataSet.SCHEDULE);
+        }
+
+        /**
+         * Stages the replacement of the adherence data with the server's adherence data.
+         * @param adherenceStore the new adherence data.
+         * @param version the version of the server's adherence data, or {@link #NO_VERSION}.
+         * @return this transaction.
+         */
+        public Transaction setAdherenceData(AdherenceStore adherenceStore, long version){
+            adherenceDelta = null;
+            adherenceVersion = version;
+            return stage(FILENAME.ADHERENCE_DATA, adherenceStore, DataChangeEvent.DataSet.ADHERENCE_DATA);
+        }
+
+        /**
+         * Stages changes to the adherence data. Unlike the other data sets, the changes are
+         * journaled, after the other data sets are written, see
+         * {@link DataIO#applyAdherenceDelta(Context, AdherenceDelta, long, long)}. The caller
+         * must have checked that the adherence data corresponds to the base version of the delta.
+         * @param delta the changes.
+         * @param version the version of the server's adherence data after the changes.
+         * @return this transaction.
+         */
+        public Transaction applyAdherenceDelta(AdherenceDelta delta, long version){
+            staged.remove(FILENAME.ADHERENCE_DATA);
+            adherenceDelta = delta;
+            adherenceVersion = version;
+            dataSets.add(DataChangeEvent.DataSet.ADHERENCE_DATA);
+            return this;
+        }
+
+        private Transaction stage(String filename, Object object, DataChangeEvent.DataSet dataSet){
+            staged.put(filename, object);
+            dataSets.add(dataSet);
+            return this;
+        }
+
+        /**
+         * Applies all staged changes. If any data set cannot be encoded, no change is applied.
+         * @param context a context required to access storage.
+         * @return true if the changes were applied.
+         */
+        @SuppressWarnings("unchecked")
+        public boolean commit(Context context){
+            synchronized (DataIO.this) {
+                if (dataSets.isEmpty())
+                    return true;
+                final Map<String, byte[]> contents = new LinkedHashMap<>();
+                try {
+                    for (Map.Entry<String, Object> entry : staged.entrySet())
+                        contents.put(entry.getKey(), encode(entry.getValue(), entry.getKey()));
+                    if (staged.containsKey(FILENAME.ADHERENCE_DATA))
+                        contents.put(FILENAME.ADHERENCE_VERSION, encodeVersion(adherenceVersion));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+
+                for (Map.Entry<String, Object> entry : staged.entrySet()) {
+                    markLoaded(entry.getKey()); // the data set replaces the data on disk
+                    writer.cancel(entry.getKey()); // superseded by the transaction
+                    switch (entry.getKey()) {
+                        case FILENAME.MEDICATIONS:
+                            medications = (ArrayList<Medication>) entry.getValue();
+                            break;
+                        case FILENAME.SCHEDULE:
+                            schedule = (Map<Medication, Calendar[]>) entry.getValue();
+                            break;
+                        case FILENAME.ADHERENCE_DATA:
+                            adherenceStore = (AdherenceStore) entry.getValue();
+                            DataIO.this.adherenceVersion = adherenceVersion;
+                            writer.cancel(FILENAME.ADHERENCE_JOURNAL); // the snapshot includes all journaled changes
+                            break;
+                    }
+                }
+                if (!contents.isEmpty()) {
+                    final File directory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
+                    final AdherenceJournal journal = staged.containsKey(FILENAME.ADHERENCE_DATA) ? getAdherenceJournal(context) : null;
+                    if (journal != null)
+                        journal.setCompactionPending(true); // the snapshot is part of the transaction
+                    writer.append(FILENAME.TRANSACTION, () -> {
+                        try {
+                            writeTransaction(directory, contents);
+                        } catch (IOException e) {
+                            if (journal != null)
+                                journal.setCompactionPending(false);
+                            throw e;
+                        }
+                        if (journal != null)
+                            journal.reset(); // only once the snapshot is written
+                    });
+                }
+
+                int fromEpochDay = Integer.MIN_VALUE, toEpochDay = Integer.MAX_VALUE;
+                if (adherenceDelta != null) {
+                    DataIO.this.applyAdherenceDelta(context, adherenceDelta, adherenceVersion);
+                    if (adherenceDelta.isEmpty()) {
+                        if (dataSets.size() == 1)
+                            return true; // nothing changed
+                        dataSets.remove(DataChangeEvent.DataSet.ADHERENCE_DATA);
+                    } else if (dataSets.size() == 1) {
+                        // only if no other data set was staged, since the others were replaced entirely
+                        fromEpochDay = adherenceDelta.getFirstDay();
+                        toEpochDay = adherenceDelta.getLastDay();
+                    }
+                }
+                notifyDataChanged(new DataChangeEvent(dataSets, fromEpochDay, toEpochDay));
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets the adherence for a single medication on a single date. Unlike
+     * {@link #setAdherenceData(Context, AdherenceStore)}, only the change is written to disk, by
+     * appending it to the adherence journal. The journal is periodically compacted into a full snapshot.
+     * @param context a context required to access storage.
+     * @param epochDay the date of the adherence, see {@link Utils#getEpochDay(int, int, int)}.
+     * @param medication the medication.
+     * @param index the index into the adherence array, i.e. AM or PM.
+     * @param adherence the new adherence.
+     */
+    public synchronized void setAdherence(Context context, int epochDay, Medication medication, int index, Adherence adherence){
+        if (getAdherenceData(context) == null)
+            adherenceStore = new AdherenceStore();
+        adherenceStore.setAdherence(epochDay, medication, index, adherence);
+
+        final AdherenceJournal journal = getAdherenceJournal(context);
+        final String medicationName = medication.getName();
+        writer.append(FILENAME.ADHERENCE_JOURNAL, () -> {
+            try {
+                journal.append(epochDay, medicationName, index, adherence);
+            } catch (IOException e) {
+                e.printStackTrace(); // the journal is then compacted on the next change
+            }
+        });
+        if (journal.shouldCompact())
+            compactAdherenceJournal(context);
+        notifyDataChanged(new DataChangeEvent(DataChangeEvent.DataSet.ADHERENCE_DATA, epochDay, epochDay));
     }
 
-    public void setAdherenceData(Context context, Map<Calendar, Map<Medication, Adherence[]>> adherenceData){
-        this.adherenceData = adherenceData;
-        writeObject(context, adherenceData, FILENAME.ADHERENCE_DATA);
+    /**
+     * Sets the adherence for a single medication on a single date.
+     * @param context a context required to access storage.
+     * @param date the date of the adherence. Only the year, month and date fields are relevant.
+     * @param medication the medication.
+     * @param index the index into the adherence array, i.e. AM or PM.
+     * @param adherence the new adherence.
+     * @see #setAdherence(Context, int, Medication, int, Adherence)
+     */
+    public void setAdherence(Context context, Calendar date, Medication medication, int index, Adherence adherence){
+        setAdherence(context, Utils.getEpochDay(date), medication, index, adherence);
     }
 
-    public void setSchedule(Context context, Map<Medication, Calendar[]> schedule){
+    public synchronized void setSchedule(Context context, Map<Medication, Calendar[]> schedule){
         this.schedule = schedule;
-        writeObject(context, schedule, FILENAME.SCHEDULE);
+        writeObject(context, schedule, FILENAME.SCHEDULE, DataChangeEvent.DataSet.SCHEDULE);
     }
 
-    public void setDosageMapping(Context context, Map<Medication, Integer> dosageMapping){
+    public synchronized void setDosageMapping(Context context, Map<Medication, Integer> dosageMapping){
         this.dosageMapping = dosageMapping;
-        writeObject(context, dosageMapping, FILENAME.DOSAGE_MAPPING);
+        writeObject(context, dosageMapping, FILENAME.DOSAGE_MAPPING, DataChangeEvent.DataSet.DOSAGE_MAPPING);
     }
 
-    public void setAddressMapping(Context context, Map<String, Medication> addressMapping){
+    public synchronized void setAddressMapping(Context context, Map<String, Medication> addressMapping){
         this.addressMapping = addressMapping;
-        writeObject(context, addressMapping, FILENAME.ADDRESS_MAPPING);
+        writeObject(context, addressMapping, FILENAME.ADDRESS_MAPPING, DataChangeEvent.DataSet.ADDRESS_MAPPING);
     }
 
-    public void setReminders(Context context, TreeSet<Integer> reminders) {
+    public synchronized void setReminders(Context context, TreeSet<Integer> reminders) {
         this.reminders = reminders;
-        writeObject(context, reminders, FILENAME.REMINDERS);
+        writeObject(context, reminders, FILENAME.REMINDERS, DataChangeEvent.DataSet.REMINDERS);
     }
 
-    public ArrayList<Medication> getMedications(Context context){
-        if (medications == null)
-            loadPreferences(context);
+    @SuppressWarnings("unchecked")
+    public synchronized ArrayList<Medication> getMedications(Context context){
+        if (!isLoaded(FILENAME.MEDICATIONS)) {
+            medications = (ArrayList<Medication>) readObject(context, FILENAME.MEDICATIONS);
+            if (medications != null && migrateImages(context, medications))
+                scheduleWrite(context, medications, FILENAME.MEDICATIONS);
+            markLoaded(FILENAME.MEDICATIONS);
+        }
         return medications;
     }
 
-    public Map<Calendar, Map<Medication, Adherence[]>> getAdherenceData(Context context){
-        if (adherenceData == null)
-            loadPreferences(context);
-        return adherenceData;
+    /**
+     * Returns a lightweight reference to the given medication, to be passed in intent extras.
+     * @param context a context required to access storage.
+     * @param medication the medication.
+     * @return a {@link MedicationRef} which can be resolved using {@link #getMedication(Context, MedicationRef)}.
+     */
+    public MedicationRef getMedicationRef(Context context, Medication medication){
+        ArrayList<Medication> medications = getMedications(context);
+        int id = medications == null ? -1 : medications.indexOf(medication);
+        return new MedicationRef(id, medication.getName());
+    }
+
+    /**
+     * Resolves a medication reference against the list of medications.
+     * @param context a context required to access storage.
+     * @param medicationRef the reference, as returned by {@link #getMedicationRef(Context, Medication)}.
+     * @return the medication, or null if it no longer exists.
+     */
+    public Medication getMedication(Context context, MedicationRef medicationRef){
+        ArrayList<Medication> medications = getMedications(context);
+        if (medicationRef == null || medications == null)
+            return null;
+        int id = medicationRef.getId();
+        if (id >= 0 && id < medications.size() && medications.get(id).getName().equals(medicationRef.getName()))
+            return medications.get(id);
+        for (Medication medication : medications) { // the list of medications changed since the reference was created
+            if (medication.getName().equals(medicationRef.getName()))
+                return medication;
+        }
+        return null;
+    }
+
+    public synchronized AdherenceStore getAdherenceData(Context context){
+        if (!isLoaded(FILENAME.ADHERENCE_DATA)) {
+            loadAdherenceData(context);
+            markLoaded(FILENAME.ADHERENCE_DATA);
+        }
+        return adherenceStore;
     }
 
-    public Map<Medication, Calendar[]> getSchedule(Context context){
-        if (schedule == null)
-            loadPreferences(context);
+    @SuppressWarnings("unchecked")
+    public synchronized Map<Medication, Calendar[]> getSchedule(Context context){
+        if (!isLoaded(FILENAME.SCHEDULE)) {
+            schedule = (Map<Medication, Calendar[]>) readObject(context, FILENAME.SCHEDULE);
+            if (schedule != null && migrateImages(context, schedule.keySet()))
+                scheduleWrite(context, schedule, FILENAME.SCHEDULE);
+            markLoaded(FILENAME.SCHEDULE);
+        }
         return schedule;
     }
 
-    public Map<Medication, Integer> getDosageMapping(Context context){
-        if (dosageMapping == null)
-            loadPreferences(context);
+    @SuppressWarnings("unchecked")
+    public synchronized Map<Medication, Integer> getDosageMapping(Context context){
+        if (!isLoaded(FILENAME.DOSAGE_MAPPING)) {
+            dosageMapping = (Map<Medication, Integer>) readObject(context, FILENAME.DOSAGE_MAPPING);
+            if (dosageMapping != null && migrateImages(context, dosageMapping.keySet()))
+                scheduleWrite(context, dosageMapping, FILENAME.DOSAGE_MAPPING);
+            markLoaded(FILENAME.DOSAGE_MAPPING);
+        }
         return dosageMapping;
     }
 
-    public Map<String, Medication> getAddressMapping(Context context) {
-        if (addressMapping == null)
-            loadPreferences(context);
+    @SuppressWarnings("unchecked")
+    public synchronized Map<String, Medication> getAddressMapping(Context context) {
+        if (!isLoaded(FILENAME.ADDRESS_MAPPING)) {
+            addressMapping = (Map<String, Medication>) readObject(context, FILENAME.ADDRESS_MAPPING);
+            if (addressMapping != null && migrateImages(context, addressMapping.values()))
+                scheduleWrite(context, addressMapping, FILENAME.ADDRESS_MAPPING);
+            markLoaded(FILENAME.ADDRESS_MAPPING);
+        }
         return addressMapping;
     }
 
-    public TreeSet<Integer> getReminders(Context context){
-        if (reminders == null)
-            loadPreferences(context);
+    @SuppressWarnings("unchecked")
+    public synchronized TreeSet<Integer> getReminders(Context context){
+        if (!isLoaded(FILENAME.REMINDERS)) {
+            reminders = (TreeSet<Integer>) readObject(context, FILENAME.REMINDERS);
+            markLoaded(FILENAME.REMINDERS);
+        }
         return reminders;
     }
 
@@ -0,0 +1,146 @@
+package cs.umass.edu.prepare.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Performs all writes of the {@link DataIO} on a single dedicated background thread, so that
+ * callers, typically the UI thread, never block on disk. Writes are debounced: a write is only
+ * performed once no further write has been requested for {@link #DEBOUNCE_DELAY_MS}, and if the
+ * same file is written several times in the meantime, only the latest version is written. Writes
+ * are never deferred for more than {@link #MAX_DELAY_MS}, even if further writes keep arriving.
+ *
+ * Pending writes are performed in the order in which their files were last requested, so a
+ * write which depends on a previous write, e.g. truncating the adherence journal after writing
+ * a new snapshot, should be requested after it. If an operation fails, the following operations
+ * are still performed; an operation which must not run unless another succeeds should perform
+ * both itself.
+ */
+class DataWriter {
+
+    /** The time after the last requested write at which pending writes are performed. */
+    static final long DEBOUNCE_DELAY_MS = 250;
+
+    /** The maximum time after the first pending write at which pending writes are performed. */
+    static final long MAX_DELAY_MS = 2000;
+
+    /**
+     * A write to disk, performed on the writer thread.
+     */
+    interface Operation {
+        void run() throws IOException;
+    }
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, DataWriter.class.getSimpleName());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            thread.setDaemon(true); // pending writes are flushed explicitly on shutdown
+            return thread;
+        }
+    });
+
+    /** The pending operations on each file, in the order in which the files were last requested. */
+    private final LinkedHashMap<String, List<Operation>> pending = new LinkedHashMap<>();
+
+    /** The scheduled execution of the pending writes, if any. */
+    private ScheduledFuture<?> scheduledWrite;
+
+    /** The time in nanoseconds at which the oldest pending write was requested. */
+    private long pendingSince;
+
+    /**
+     * Requests that the given file be written, replacing any pending write of that file.
+     * @param filename the file to write.
+     * @param operation writes the latest version of the file.
+     */
+    synchronized void write(String filename, Operation operation){
+        pending.remove(filename); // moves the file to the end of the write order
+        List<Operation> operations = new ArrayList<>();
+        operations.add(operation);
+        pending.put(filename, operations);
+        schedule();
+    }
+
+    /**
+     * Requests that the given operation be performed after any pending write of the same file,
+     * e.g. to append a record to a file, rather than replacing the pending write.
+     * @param filename the file to write.
+     * @param operation writes to the file.
+     */
+    synchronized void append(String filename, Operation operation){
+        List<Operation> operations = pending.remove(filename); // moves the file to the end of the write order
+        if (operations == null)
+            operations = new ArrayList<>();
+        operations.add(operation);
+        pending.put(filename, operations);
+        schedule();
+    }
+
+    /**
+     * Discards any pending write of the given file, e.g. because it is superseded by another write.
+     * @param filename the file.
+     */
+    synchronized void cancel(String filename){
+        pending.remove(filename);
+    }
+
+    /**
+     * Immediately performs all pending writes and waits for them to complete. This should be
+     * called on shutdown and before data is read back from disk.
+     */
+    void flush(){
+        synchronized (this) {
+            if (scheduledWrite != null) {
+                scheduledWrite.cancel(false);
+                scheduledWrite = null;
+            }
+        }
+        try {
+            executor.submit(this::writePending).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void schedule(){
+        long now = System.nanoTime();
+        if (scheduledWrite == null)
+            pendingSince = now;
+        else
+            scheduledWrite.cancel(false);
+        long remaining = MAX_DELAY_MS - TimeUnit.NANOSECONDS.toMillis(now - pendingSince);
+        scheduledWrite = executor.schedule(this::writePending, Math.max(0, Math.min(DEBOUNCE_DELAY_MS, remaining)), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Performs all pending writes. Always called on the writer thread.
+     */
+    private void writePending(){
+        List<Operation> operations = new ArrayList<>();
+        synchronized (this) {
+            for (List<Operation> fileOperations : pending.values())
+                operations.addAll(fileOperations);
+            pending.clear();
+            scheduledWrite = null;
+        }
+        for (Operation operation : operations) { // each independently, so a failure does not drop the following operations
+            try {
+                operation.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
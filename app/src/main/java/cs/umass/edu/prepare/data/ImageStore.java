@@ -0,0 +1,186 @@
+package cs.umass.edu.prepare.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A content-addressed store for medication images. Each image is PNG-encoded once and written
+ * to its own file, named by the SHA-1 hash of the encoded bytes, so that {@link Medication}
+ * objects only need to reference images by key and identical images are stored only once.
+ * Decoded bitmaps are held in an in-memory {@link LruCache}.
+ */
+public class ImageStore {
+
+    /** used for debugging purposes */
+    private static final String TAG = ImageStore.class.getName();
+
+    private static final String DIRECTORY = "images";
+
+    /** The fraction of the maximum heap size used for caching decoded bitmaps. */
+    private static final int CACHE_FRACTION = 8;
+
+    private static ImageStore instance;
+
+    /** The directory containing the image files. */
+    private final File directory;
+
+    /** Caches decoded bitmaps by key, sized by the number of bytes of each bitmap. */
+    private final LruCache<String, Bitmap> cache;
+
+    public static synchronized ImageStore getInstance(Context context){
+        if (instance == null)
+            instance = new ImageStore(context.getApplicationContext());
+        return instance;
+    }
+
+    private ImageStore(Context context){
+        directory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / CACHE_FRACTION);
+        cache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Adds an image to the store. If an identical image is already stored, it is not written again.
+     * @param bitmap the image.
+     * @return the key referencing the image, or null if the image could not be stored.
+     */
+    public String put(Bitmap bitmap){
+        if (bitmap == null)
+            return null;
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 0, byteStream);
+        String key = put(byteStream.toByteArray());
+        if (key != null)
+            cache.put(key, bitmap);
+        return key;
+    }
+
+    /**
+     * Adds an encoded image to the store without decoding it. If an identical image is already
+     * stored, it is not written again.
+     * @param bytes the encoded image, e.g. a PNG.
+     * @return the key referencing the image, or null if the image could not be stored.
+     */
+    String put(byte[] bytes){
+        String key = getKey(bytes);
+        if (key == null)
+            return null;
+
+        File file = getFile(key);
+        if (!file.exists()) {
+            File tempFile = new File(directory, key + ".tmp");
+            try {
+                FileOutputStream outputStream = new FileOutputStream(tempFile);
+                try {
+                    outputStream.write(bytes);
+                } finally {
+                    outputStream.close();
+                }
+                if (!tempFile.renameTo(file)) {
+                    Log.w(TAG, "Failed to store image " + key);
+                    return null;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns the image referenced by the given key, decoding it from disk if it is not cached.
+     * @param key the key, as returned by {@link #put(Bitmap)}.
+     * @return the image, or null if no such image is stored.
+     */
+    public Bitmap get(String key){
+        return get(key, 0, 0);
+    }
+
+    /**
+     * Returns the image referenced by the given key, downsampled to the size at which it is
+     * displayed. Downsampled images are cached separately from the full size image.
+     * @param key the key, as returned by {@link #put(Bitmap)}.
+     * @param reqWidth the width at which the image is displayed, or 0 for full size.
+     * @param reqHeight the height at which the image is displayed, or 0 for full size.
+     * @return the image, or null if no such image is stored.
+     */
+    public Bitmap get(String key, int reqWidth, int reqHeight){
+        if (key == null)
+            return null;
+        String cacheKey = reqWidth > 0 && reqHeight > 0 ? key + "@" + reqWidth + "x" + reqHeight : key;
+        Bitmap bitmap = cache.get(cacheKey);
+        if (bitmap == null) {
+            bitmap = decode(getFile(key), reqWidth, reqHeight);
+            if (bitmap != null)
+                cache.put(cacheKey, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Reads an image file into a pooled buffer with a single read and decodes it.
+     */
+    private Bitmap decode(File file, int reqWidth, int reqHeight){
+        if (!file.exists()) {
+            Log.w(TAG, "No image found at " + file);
+            return null;
+        }
+        try {
+            DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+            try {
+                int length = (int) file.length();
+                byte[] buffer = BitmapDecoder.readFully(inputStream, length);
+                try {
+                    return BitmapDecoder.decode(buffer, length, reqWidth, reqHeight);
+                } finally {
+                    BitmapDecoder.releaseBuffer(buffer);
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private File getFile(String key){
+        return new File(directory, key + ".png");
+    }
+
+    /**
+     * Returns the key for the given encoded image, i.e. the hex-encoded SHA-1 hash of its bytes.
+     * @param bytes the encoded image.
+     * @return the key, or null if SHA-1 is not available.
+     */
+    private static String getKey(byte[] bytes){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest(bytes))
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+}
@@ -1,20 +1,34 @@
 package cs.umass.edu.prepare.data;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 
 import java.io.Serializable;
 
 /**
- * A medication includes a name and, if available, an image.
+ * A medication includes a name and, if available, an image. Images are held in the
+ * {@link ImageStore} and only referenced by key, so that serializing a medication, e.g. as a
+ * key of the schedule or dosage mapping, does not encode its images.
  */
 public class Medication implements Serializable {
 
+    /** Matches the version written before images were moved to the {@link ImageStore}. */
+    private static final long serialVersionUID = -473555941606802480L;
+
     private final String name;
 
+    /** Only set when read from data written by a previous version, see {@link #migrateImages(ImageStore)}. */
     private SerialBitmap image;
 
+    /** Only set when read from data written by a previous version, see {@link #migrateImages(ImageStore)}. */
     private SerialBitmap defaultImage;
 
+    /** References the medication image in the {@link ImageStore}. */
+    private String imageKey;
+
+    /** References the default medication image in the {@link ImageStore}. */
+    private String defaultImageKey;
+
     public Medication(String name){
         this.name = name;
     }
@@ -32,24 +46,59 @@ public class Medication implements Serializable {
         return name.hashCode();
     }
 
-    public void setImage(Bitmap image){
-        this.image = new SerialBitmap(image);
+    public void setImage(Context context, Bitmap image){
+        this.imageKey = ImageStore.getInstance(context).put(image);
+        this.image = null;
+    }
+
+    public void setDefaultImage(Context context, Bitmap defaultImage){
+        this.defaultImageKey = ImageStore.getInstance(context).put(defaultImage);
+        this.defaultImage = null;
+    }
+
+    public Bitmap getImage(Context context){
+        if (image != null)
+            return image.getBitmap();
+        return ImageStore.getInstance(context).get(imageKey);
     }
 
-    public void setDefaultImage(Bitmap defaultImage){
-        this.defaultImage = new SerialBitmap(defaultImage);
+    /**
+     * Returns the medication image, downsampled to the size at which it is displayed.
+     * @param context a context required to access the image store.
+     * @param width the width at which the image is displayed.
+     * @param height the height at which the image is displayed.
+     * @return the image, or null if the medication has no image.
+     */
+    public Bitmap getImage(Context context, int width, int height){
+        if (image != null)
+            return image.getBitmap(width, height);
+        return ImageStore.getInstance(context).get(imageKey, width, height);
     }
 
-    public Bitmap getImage(){
-        if (image == null)
-            return null;
-        return image.getBitmap();
+    public Bitmap getDefaultImage(Context context) {
+        if (defaultImage != null)
+            return defaultImage.getBitmap();
+        return ImageStore.getInstance(context).get(defaultImageKey);
     }
 
-    public Bitmap getDefaultImage() {
-        if (defaultImage == null)
-            return null;
-        return defaultImage.getBitmap();
+    /**
+     * Moves images embedded by a previous version into the image store, replacing them by keys.
+     * @param imageStore the image store.
+     * @return true if any image was migrated, in which case the medication should be saved again.
+     */
+    boolean migrateImages(ImageStore imageStore){
+        boolean migrated = false;
+        if (image != null) {
+            imageKey = imageStore.put(image.getEncoded());
+            image = null;
+            migrated = true;
+        }
+        if (defaultImage != null) {
+            defaultImageKey = imageStore.put(defaultImage.getEncoded());
+            defaultImage = null;
+            migrated = true;
+        }
+        return migrated;
     }
 
     public String getName(){
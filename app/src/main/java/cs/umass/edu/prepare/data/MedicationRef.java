@@ -0,0 +1,65 @@
+package cs.umass.edu.prepare.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A lightweight reference to a {@link Medication}, used to pass medications between application
+ * components through {@link android.content.Intent} extras and {@link android.app.PendingIntent}s.
+ * Unlike a serialized {@link Medication}, it holds only an id and a name. Receivers resolve it
+ * using {@link DataIO#getMedication(android.content.Context, MedicationRef)}.
+ */
+public class MedicationRef implements Parcelable {
+
+    /** The index of the medication in the list of medications at the time the reference was created. */
+    private final int id;
+
+    /** The name of the medication, which identifies it if the list of medications has since changed. */
+    private final String name;
+
+    public MedicationRef(int id, String name){
+        this.id = id;
+        this.name = name;
+    }
+
+    private MedicationRef(Parcel in){
+        id = in.readInt();
+        name = in.readString();
+    }
+
+    public static final Creator<MedicationRef> CREATOR = new Creator<MedicationRef>() {
+        @Override
+        public MedicationRef createFromParcel(Parcel in) {
+            return new MedicationRef(in);
+        }
+
+        @Override
+        public MedicationRef[] newArray(int size) {
+            return new MedicationRef[size];
+        }
+    };
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(id);
+        dest.writeString(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
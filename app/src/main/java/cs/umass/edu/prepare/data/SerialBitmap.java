@@ -1,42 +1,94 @@
 package cs.umass.edu.prepare.data;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * See https://stackoverflow.com/questions/6002800/android-serializable-problem.
+ *
+ * The bitmap is written as its PNG encoding, prefixed by {@link #MAGIC} and its length, so that
+ * it can be read with a single {@link java.io.ObjectInputStream#readFully(byte[], int, int) readFully}.
+ * Bitmaps written by previous versions are not length-prefixed; they are read in large chunks
+ * until the end of the object's data. The encoded image is kept and only decoded when needed.
  */
 class SerialBitmap implements Serializable {
 
-    private Bitmap bitmap;
+    private static final long serialVersionUID = 1220654851144200618L;
+
+    /** Precedes the length-prefixed encoding. Unprefixed encodings begin with the PNG signature instead. */
+    private static final int MAGIC = 0x53424D50; // "SBMP"
+
+    private transient Bitmap bitmap;
+
+    /** The PNG encoding of the bitmap. */
+    private transient byte[] encoded;
 
     SerialBitmap(Bitmap bitmap) {
         this.bitmap = bitmap;
     }
 
-    // Converts the Bitmap into a byte array for serialization
+    // Converts the Bitmap into a length-prefixed byte array for serialization
     private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 0, byteStream);
-        byte bitmapBytes[] = byteStream.toByteArray();
+        byte[] bitmapBytes = getEncoded();
+        out.writeInt(MAGIC);
+        out.writeInt(bitmapBytes.length);
         out.write(bitmapBytes, 0, bitmapBytes.length);
     }
 
-    // Deserializes a byte array representing the Bitmap and decodes it
+    // Reads the byte array representing the Bitmap; it is decoded in getBitmap()
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        int b;
-        while((b = in.read()) != -1)
-            byteStream.write(b);
-        byte bitmapBytes[] = byteStream.toByteArray();
-        bitmap = BitmapFactory.decodeByteArray(bitmapBytes, 0, bitmapBytes.length);
+        byte[] header = new byte[4];
+        in.readFully(header);
+        byte[] buffer;
+        int length;
+        if (readInt(header) == MAGIC) {
+            length = in.readInt();
+            buffer = BitmapDecoder.readFully(in, length);
+        } else { // written by a previous version without a length prefix
+            int[] count = new int[1];
+            buffer = BitmapDecoder.readRemaining(in, header, count);
+            length = count[0];
+        }
+        encoded = Arrays.copyOf(buffer, length);
+        BitmapDecoder.releaseBuffer(buffer);
+    }
+
+    private static int readInt(byte[] bytes){
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * Returns the PNG encoding of the bitmap.
+     * @return the encoded bitmap.
+     */
+    byte[] getEncoded() {
+        if (encoded == null) {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 0, byteStream);
+            encoded = byteStream.toByteArray();
+        }
+        return encoded;
     }
 
     Bitmap getBitmap() {
+        if (bitmap == null && encoded != null)
+            bitmap = BitmapDecoder.decode(encoded, encoded.length, 0, 0);
         return bitmap;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the bitmap downsampled to the given size. The result is not retained.
+     * @param reqWidth the width at which the bitmap is displayed.
+     * @param reqHeight the height at which the bitmap is displayed.
+     * @return the bitmap.
+     */
+    Bitmap getBitmap(int reqWidth, int reqHeight) {
+        if (bitmap != null || encoded == null)
+            return bitmap;
+        return BitmapDecoder.decode(encoded, encoded.length, reqWidth, reqHeight);
+    }
+}
@@ -0,0 +1,200 @@
+package cs.umass.edu.prepare.detection;
+
+/**
+ * Detects pill intake gestures on the device from the accelerometer and gyroscope stream of the
+ * wearable, so that a detection does not have to wait for the server.
+ *
+ * Samples are held in a ring buffer covering a sliding window of {@link #WINDOW_SIZE} samples.
+ * Running sums over the window are updated as samples enter and leave it, so the features, the
+ * mean and standard deviation of each axis, are computed in constant time. Every
+ * {@link #HOP_SIZE} samples the features are scored by a logistic classifier, and a gesture is
+ * reported once {@link #MIN_POSITIVE_WINDOWS} consecutive windows score above the threshold.
+ * After a detection, further detections are suppressed for {@link #REFRACTORY_PERIOD_MS}, since
+ * a single gesture spans several windows.
+ *
+ * The default weights are a hand-tuned starting point: raising the hand to the mouth rotates the
+ * wrist, i.e. the gyroscope varies strongly, while the accelerometer varies moderately. Weights
+ * fitted offline to labelled recordings can be passed to {@link #PillIntakeDetector(float[], float, float, OnGestureDetectedListener)}.
+ */
+public class PillIntakeDetector {
+
+    /**
+     * Notified when a pill intake gesture is detected.
+     */
+    public interface OnGestureDetectedListener {
+        /**
+         * @param timestamp the time in milliseconds of the last sample of the window in which
+         *                  the gesture was detected.
+         */
+        void onGestureDetected(long timestamp);
+    }
+
+    /** The number of values per sample: the accelerometer x, y, z and gyroscope x, y, z. */
+    public static final int CHANNELS = 6;
+
+    /** The number of features, see {@link #computeFeatures(float[])}. */
+    public static final int FEATURES = 9;
+
+    /** The number of samples in a window, about 2 seconds at 62.5 Hz. */
+    static final int WINDOW_SIZE = 128;
+
+    /** The number of samples between successive windows. */
+    static final int HOP_SIZE = 32;
+
+    /** The number of consecutive windows which must be classified as a gesture. */
+    static final int MIN_POSITIVE_WINDOWS = 2;
+
+    /** The time in milliseconds after a detection during which no further gesture is reported. */
+    static final long REFRACTORY_PERIOD_MS = 30000;
+
+    /**
+     * The default weights of the features: the standard deviation of the accelerometer x, y, z
+     * (in g), the standard deviation of the gyroscope x, y, z (in degrees per second) and the mean
+     * of the accelerometer x, y, z, which reflects the orientation of the wrist.
+     */
+    private static final float[] DEFAULT_WEIGHTS = {4f, 4f, 4f, 0.04f, 0.04f, 0.04f, 0f, 0f, 0f};
+
+    private static final float DEFAULT_BIAS = -6f;
+
+    private static final float DEFAULT_THRESHOLD = 0.5f;
+
+    private final float[] weights;
+
+    private final float bias;
+
+    /** The minimum probability at which a window is classified as a gesture. */
+    private final float threshold;
+
+    private final OnGestureDetectedListener listener;
+
+    /** The samples in the window, one ring buffer per channel. */
+    private final float[][] window = new float[CHANNELS][WINDOW_SIZE];
+
+    /** The running sum of each channel over the window. */
+    private final double[] sums = new double[CHANNELS];
+
+    /** The running sum of squares of each channel over the window. */
+    private final double[] sumsOfSquares = new double[CHANNELS];
+
+    /** The features of the current window, reused. */
+    private final float[] features = new float[FEATURES];
+
+    /** The index in the ring buffers at which the next sample is written. */
+    private int head;
+
+    /** The number of samples in the window, at most {@link #WINDOW_SIZE}. */
+    private int size;
+
+    /** The number of samples since the last window was classified. */
+    private int samplesSinceWindow;
+
+    /** The number of consecutive windows classified as a gesture. */
+    private int positiveWindows;
+
+    /** The time of the last detection. */
+    private long lastDetection = -REFRACTORY_PERIOD_MS;
+
+    public PillIntakeDetector(OnGestureDetectedListener listener){
+        this(DEFAULT_WEIGHTS, DEFAULT_BIAS, DEFAULT_THRESHOLD, listener);
+    }
+
+    /**
+     * @param weights the weight of each feature, see {@link #computeFeatures(float[])}.
+     * @param bias the bias of the classifier.
+     * @param threshold the minimum probability at which a window is classified as a gesture.
+     * @param listener notified when a gesture is detected.
+     */
+    public PillIntakeDetector(float[] weights, float bias, float threshold, OnGestureDetectedListener listener){
+        if (weights.length != FEATURES)
+            throw new IllegalArgumentException("Expected " + FEATURES + " weights, got " + weights.length);
+        this.weights = weights.clone();
+        this.bias = bias;
+        this.threshold = threshold;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a sample. Must always be called from the same thread, e.g. the sensor callback.
+     */
+    public void add(long timestamp, float accelerometerX, float accelerometerY, float accelerometerZ,
+                    float gyroscopeX, float gyroscopeY, float gyroscopeZ){
+        put(0, accelerometerX);
+        put(1, accelerometerY);
+        put(2, accelerometerZ);
+        put(3, gyroscopeX);
+        put(4, gyroscopeY);
+        put(5, gyroscopeZ);
+        head = (head + 1) % WINDOW_SIZE;
+        if (size < WINDOW_SIZE)
+            size++;
+
+        if (++samplesSinceWindow < HOP_SIZE || size < WINDOW_SIZE)
+            return;
+        samplesSinceWindow = 0;
+        computeFeatures(features);
+        if (classify(features) >= threshold) {
+            positiveWindows++;
+        } else {
+            positiveWindows = 0;
+        }
+        if (positiveWindows >= MIN_POSITIVE_WINDOWS && timestamp - lastDetection >= REFRACTORY_PERIOD_MS) {
+            lastDetection = timestamp;
+            positiveWindows = 0;
+            listener.onGestureDetected(timestamp);
+        }
+    }
+
+    /**
+     * Writes a value at the head of a channel's ring buffer, evicting the oldest value.
+     */
+    private void put(int channel, float value){
+        if (size == WINDOW_SIZE) {
+            float evicted = window[channel][head];
+            sums[channel] -= evicted;
+            sumsOfSquares[channel] -= (double) evicted * evicted;
+        }
+        window[channel][head] = value;
+        sums[channel] += value;
+        sumsOfSquares[channel] += (double) value * value;
+    }
+
+    /**
+     * Computes the features of the current window: the standard deviation of each channel,
+     * followed by the mean of the accelerometer x, y and z.
+     * @param features receives the {@link #FEATURES} features.
+     */
+    void computeFeatures(float[] features){
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            double mean = sums[channel] / size;
+            double variance = sumsOfSquares[channel] / size - mean * mean;
+            features[channel] = (float) Math.sqrt(Math.max(0, variance)); // rounding may make it negative
+        }
+        for (int axis = 0; axis < 3; axis++)
+            features[CHANNELS + axis] = (float) (sums[axis] / size);
+    }
+
+    /**
+     * Returns the probability that the features belong to a pill intake gesture.
+     */
+    float classify(float[] features){
+        float score = bias;
+        for (int i = 0; i < FEATURES; i++)
+            score += weights[i] * features[i];
+        return (float) (1 / (1 + Math.exp(-score)));
+    }
+
+    /**
+     * Clears the window, e.g. when the sensors are restarted, so that samples separated by a gap
+     * are not classified together.
+     */
+    public void reset(){
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            sums[channel] = 0;
+            sumsOfSquares[channel] = 0;
+        }
+        head = 0;
+        size = 0;
+        samplesSinceWindow = 0;
+        positiveWindows = 0;
+    }
+}
@@ -0,0 +1,73 @@
+package cs.umass.edu.prepare.services;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import cs.umass.edu.prepare.constants.Constants;
+import edu.umass.cs.MHLClient.sensors.SensorReading;
+
+/**
+ * A frame of accelerometer and gyroscope samples, sent to the server as a single message, see
+ * {@link SensorBatcher}. The samples are sent as flat arrays:
+ *
+ * <pre>
+ * {
+ *   "t": 1502800000000,
+ *   "dt": [0, 16, 32, ...],
+ *   "accelerometer": [x0, y0, z0, x1, y1, z1, ...],
+ *   "gyroscope": [x0, y0, z0, x1, y1, z1, ...]
+ * }
+ * </pre>
+ *
+ * where t is the time of the first sample and dt the offset of each sample from it. The message
+ * is built when the reading is created, so that the frame can be reused immediately.
+ */
+class BatchedSensorReading extends SensorReading {
+
+    private final JSONObject json;
+
+    BatchedSensorReading(String userID, String deviceType, String deviceID, SensorBatcher.Frame frame){
+        super(userID, deviceType, deviceID, Constants.SENSOR_TYPE.WEARABLE_BATCH, frame.timestamps[0]);
+        json = toJSONObject(frame);
+    }
+
+    private JSONObject toJSONObject(SensorBatcher.Frame frame) {
+        JSONObject obj = new JSONObject();
+        JSONObject data = new JSONObject();
+
+        try {
+            obj.put("user_id", userID);
+            obj.put("device_type", deviceType);
+            obj.put("device_id", deviceID);
+            obj.put("sensor_type", sensorType);
+
+            JSONArray offsets = new JSONArray();
+            JSONArray accelerometer = new JSONArray();
+            JSONArray gyroscope = new JSONArray();
+            for (int i = 0; i < frame.size; i++) {
+                offsets.put(frame.timestamps[i] - timestamp);
+                int offset = i * SensorBatcher.CHANNELS;
+                for (int axis = 0; axis < 3; axis++) {
+                    accelerometer.put(frame.values[offset + axis]);
+                    gyroscope.put(frame.values[offset + 3 + axis]);
+                }
+            }
+            data.put("t", timestamp);
+            data.put("dt", offsets);
+            data.put("accelerometer", accelerometer);
+            data.put("gyroscope", gyroscope);
+
+            obj.put("data", data);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        return obj;
+    }
+
+    @Override
+    protected JSONObject toJSONObject() {
+        return json;
+    }
+}
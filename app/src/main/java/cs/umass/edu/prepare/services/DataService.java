@@ -20,6 +20,7 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
@@ -36,22 +37,26 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 import cs.umass.edu.prepare.R;
 import cs.umass.edu.prepare.constants.Constants;
 import cs.umass.edu.prepare.data.Adherence;
+import cs.umass.edu.prepare.data.AdherenceDelta;
+import cs.umass.edu.prepare.data.AdherenceJsonReader;
+import cs.umass.edu.prepare.data.AdherenceStore;
+import cs.umass.edu.prepare.data.DataChangeEvent;
 import cs.umass.edu.prepare.data.DataIO;
 import cs.umass.edu.prepare.data.Medication;
+import cs.umass.edu.prepare.data.MedicationRef;
 import cs.umass.edu.prepare.reminders.NotificationPublisher;
 import cs.umass.edu.prepare.util.Utils;
 import cs.umass.edu.prepare.view.activities.CalendarActivity;
@@ -68,14 +73,14 @@ public class DataService extends Service implements BeaconConsumer {
     /** The list of medications. **/
     private ArrayList<Medication> medications = new ArrayList<>();
 
-    /** The entire adherence data. Date is stored in a tree map because dates are naturally ordered. **/
-    private Map<Calendar, Map<Medication, Adherence[]>> adherenceData = new TreeMap<>();
-
     /** Maps a medication to a schedule (a list of times to take the medication). **/
     private Map<Medication, Calendar[]> schedule = new HashMap<>();
 
-    /** Maps a medication to a unique Mac Address. **/
-    private Map<String, Medication> addressMapping = new HashMap<>();
+    /**
+     * Maps the unique Mac Address of a bottle, normalized by {@link #normalizeAddress(String)},
+     * to its medication. It is replaced rather than modified, since it is read on the ranging thread.
+     **/
+    private volatile Map<String, Medication> medicationsByAddress = new HashMap<>();
 
     private Map<Medication, Integer> dosageMapping = new HashMap<>();
 
@@ -90,40 +95,72 @@ public class DataService extends Service implements BeaconConsumer {
     private BeaconManager beaconManager;
 
     /**
-     * Loads the data from disk.
+     * Loads the data from disk. The adherence data is not needed by the service, so it is
+     * only read when it is first requested elsewhere.
      */
     private void loadData(){
         medications = dataIO.getMedications(this);
         schedule = dataIO.getSchedule(this);
-        adherenceData = dataIO.getAdherenceData(this);
-        addressMapping = dataIO.getAddressMapping(this);
+        indexAddressMapping();
         dosageMapping = dataIO.getDosageMapping(this);
         reminders = dataIO.getReminders(this);
     }
 
     /**
-     * Updates the list of medications, given a new list of medications, and saves it to disk.
+     * Reloads only the data sets which changed.
+     * @param event describes the change.
+     */
+    private void onDataChanged(DataChangeEvent event){
+        for (DataChangeEvent.DataSet dataSet : event.getDataSets()) {
+            switch (dataSet) {
+                case MEDICATIONS:
+                    medications = dataIO.getMedications(this);
+                    indexAddressMapping();
+                    break;
+                case SCHEDULE:
+                    schedule = dataIO.getSchedule(this);
+                    break;
+                case ADDRESS_MAPPING:
+                    indexAddressMapping();
+                    break;
+                case DOSAGE_MAPPING:
+                    dosageMapping = dataIO.getDosageMapping(this);
+                    break;
+                case REMINDERS:
+                    reminders = dataIO.getReminders(this);
+                    break;
+                case ADHERENCE_DATA:
+                    break; // not held by the service
+            }
+        }
+    }
+
+    /**
+     * Updates the list of medications, given a new list of medications.
      * @param newMedications a JSON array of medications
+     * @param transaction the transaction in which the medications are saved to disk.
      */
-    private void updateMedications(JSONArray newMedications) throws JSONException {
-        medications.clear();
+    private void updateMedications(JSONArray newMedications, DataIO.Transaction transaction) throws JSONException {
+        ArrayList<Medication> medications = new ArrayList<>();
         for (int i = 0; i < newMedications.length(); i++){
             String medicationName = newMedications.getString(i);
             Medication medication = new Medication(medicationName);
             Bitmap medImage = BitmapFactory.decodeResource(getResources(), R.drawable.ic_pill);
-            medication.setImage(medImage);
-            medication.setDefaultImage(medImage);
+            medication.setImage(this, medImage);
+            medication.setDefaultImage(this, medImage);
             medications.add(medication);
         }
-        dataIO.setMedications(this, medications);
+        this.medications = medications;
+        transaction.setMedications(medications);
     }
 
     /**
-     * Updates the medication schedule and saves it to disk.
+     * Updates the medication schedule.
      * @param newSchedule a JSON object mapping medication names to a list of times encoded in Strings.
+     * @param transaction the transaction in which the schedule is saved to disk.
      */
-    private void updateSchedule(JSONObject newSchedule) throws JSONException, ParseException {
-        schedule = new HashMap<>();
+    private void updateSchedule(JSONObject newSchedule, DataIO.Transaction transaction) throws JSONException, ParseException {
+        Map<Medication, Calendar[]> schedule = new HashMap<>();
         // assuming medications are updated first
         for (Medication medication : medications){
             JSONArray medicationSchedule = newSchedule.getJSONArray(medication.getName());
@@ -133,84 +170,94 @@ public class DataService extends Service implements BeaconConsumer {
             if (timeAM.equals("null")){
                 calendarAM = null;
             } else {
-                Date dateAM = Constants.DATE_FORMAT._24_HR.parse(timeAM);
-                calendarAM = Calendar.getInstance();
-                calendarAM.setTime(dateAM);
+                calendarAM = Utils.getTimeOfDay(Utils.parseMinuteOfDay(timeAM));
             }
 
             if (timePM.equals("null")){
                 calendarPM = null;
             } else {
-                Date datePM = Constants.DATE_FORMAT._24_HR.parse(timePM);
-                calendarPM = Calendar.getInstance();
-                calendarPM.setTime(datePM);
+                calendarPM = Utils.getTimeOfDay(Utils.parseMinuteOfDay(timePM));
             }
             schedule.put(medication, new Calendar[]{calendarAM, calendarPM});
         }
-        dataIO.setSchedule(this, schedule);
+        this.schedule = schedule;
+        transaction.setSchedule(schedule);
     }
 
     /**
-     * Updates the adherence data and saves it to disk.
+     * Updates the adherence data. The adherence data is read directly into a new adherence
+     * store, see {@link AdherenceJsonReader}.
      * @param newAdherenceData the new adherence data.
+     * @param version the version of the server's adherence data, or {@link DataIO#NO_VERSION}.
+     * @param transaction the transaction in which the adherence data is saved to disk.
      */
-    private void updateAdherenceData(JSONObject newAdherenceData) throws JSONException, ParseException {
-        adherenceData.clear();
+    private void updateAdherenceData(JSONObject newAdherenceData, long version, DataIO.Transaction transaction) throws IOException {
         // assuming medication list and schedule has already been updated
-        Iterator<String> dateIter = newAdherenceData.keys();
-        while (dateIter.hasNext()) {
-            String dateKeyStr = dateIter.next();
-            Map<Medication, Adherence[]> medicationAdherence = new HashMap<>();
-
-            JSONObject medicationAdherenceJSON = newAdherenceData.getJSONObject(dateKeyStr);
-            for (Medication medication : medications) {
-                Log.i(TAG, medication.getName());
-                String medicationKey = medication.getName();
-                JSONArray adherenceForMedication = medicationAdherenceJSON.getJSONArray(medicationKey);
-
-                Adherence[] adherenceArray = new Adherence[2];
-                for (int i = 0; i < 2; i++){
-                    JSONArray adherenceJSON = adherenceForMedication.getJSONArray(i);
-                    String adherenceType = adherenceJSON.getString(0);
-                    String timeStr = adherenceJSON.getString(1);
-
-                    Date dateTime = Constants.DATE_FORMAT._24_HR.parse(timeStr);
-                    Calendar cal = Calendar.getInstance();
-                    cal.setTime(dateTime);
-
-                    final Adherence adherence;
-                    switch (adherenceType){
-                        case "FUTURE":
-                            adherence = new Adherence(Adherence.AdherenceType.FUTURE, cal);
-                            break;
-                        case "NONE":
-                            adherence = new Adherence(Adherence.AdherenceType.NONE, cal);
-                            break;
-                        case "MISSED":
-                            adherence = new Adherence(Adherence.AdherenceType.MISSED, null);
-                            break;
-                        case "TAKEN_EARLY_OR_LATE":
-                            adherence = new Adherence(Adherence.AdherenceType.TAKEN_EARLY_OR_LATE, cal);
-                            break;
-                        case "TAKEN":
-                            adherence = new Adherence(Adherence.AdherenceType.TAKEN, cal);
-                            break;
-                        default:
-                            adherence = null;
-                    }
-                    adherenceArray[i] = adherence;
-                }
+        AdherenceStore adherenceData = AdherenceJsonReader.read(newAdherenceData, medications);
+        Log.i(TAG, "Received adherence data for " + adherenceData.getMedicationNames() + " from "
+                + adherenceData.getFirstDay() + " to " + adherenceData.getLastDay() + ", version " + version);
+        transaction.setAdherenceData(adherenceData, version);
+    }
 
-                medicationAdherence.put(medication, adherenceArray);
+    /**
+     * Applies the days of adherence data changed on the server since the given base version.
+     * Only the changed days are saved to disk. If the adherence data does not correspond to
+     * the base version, e.g. because an earlier update was missed, the delta is discarded and
+     * a full resync is requested from the server.
+     * @param adherenceDelta the changed days, in the same form as the full adherence data.
+     * @param baseVersion the version of the server's adherence data to which the changes apply.
+     * @param version the version of the server's adherence data after the changes.
+     * @param transaction the transaction in which the changed days are saved to disk.
+     */
+    private void updateAdherenceData(JSONObject adherenceDelta, long baseVersion, long version, DataIO.Transaction transaction) throws IOException {
+        long currentVersion = dataIO.getAdherenceVersion(this);
+        if (baseVersion != DataIO.NO_VERSION && baseVersion == currentVersion) {
+            AdherenceDelta delta = AdherenceJsonReader.readDelta(adherenceDelta, medications);
+            transaction.applyAdherenceDelta(delta, version);
+            Log.i(TAG, "Applying " + delta.size() + " adherence changes from version " + baseVersion + " to " + version);
+        } else {
+            Log.w(TAG, "Adherence delta based on version " + baseVersion + " but have version "
+                    + currentVersion + ". Requesting full resync.");
+            requestAdherenceSync(currentVersion);
+        }
+    }
+
+    /**
+     * Requests the server to send the full adherence data in the next data update.
+     * @param currentVersion the version of the server's adherence data which the adherence data
+     *                       corresponds to, or {@link DataIO#NO_VERSION}.
+     */
+    private void requestAdherenceSync(long currentVersion){
+        if (mClient == null)
+            return;
+        mClient.sendSensorReading(new SyncRequestReading(getString(R.string.mobile_health_client_user_id),
+                "MOBILE", "", System.currentTimeMillis(), currentVersion));
+    }
+
+    /**
+     * Normalizes a Mac Address, which may be reported in either case, e.g. by the server.
+     */
+    private static String normalizeAddress(String address){
+        return address.trim().toUpperCase(Locale.US);
+    }
+
+    /**
+     * Rebuilds {@link #medicationsByAddress} from the address mapping on disk. The medications
+     * are resolved against the list of medications, so that the index holds the current instances.
+     */
+    private void indexAddressMapping(){
+        Map<String, Medication> addressMapping = dataIO.getAddressMapping(this);
+        Map<String, Medication> medicationsByAddress = new HashMap<>();
+        if (addressMapping == null){
+            Log.w(TAG, "No address mapping found. Pill intake gestures cannot be attributed to a medication.");
+        } else {
+            for (Map.Entry<String, Medication> entry : addressMapping.entrySet()) {
+                Medication medication = entry.getValue();
+                int index = medications == null ? -1 : medications.indexOf(medication);
+                medicationsByAddress.put(normalizeAddress(entry.getKey()), index >= 0 ? medications.get(index) : medication);
             }
-            Calendar dateInfo = Calendar.getInstance();
-            // TODO : other dateKey method doesn't work
-            dateInfo.setTime(Constants.DATE_FORMAT.YEAR_MONTH_DAY.parse(dateKeyStr));
-            Calendar dateKey = Utils.getDateKey(dateInfo.get(Calendar.YEAR), dateInfo.get(Calendar.MONTH), dateInfo.get(Calendar.DATE));
-            adherenceData.put(dateKey, medicationAdherence);
         }
-        Log.i(TAG, adherenceData.toString());
-        dataIO.setAdherenceData(this, adherenceData);
+        this.medicationsByAddress = medicationsByAddress;
     }
 
     /**
@@ -219,17 +266,48 @@ public class DataService extends Service implements BeaconConsumer {
      * @return the medication associated with that device, null if not found.
      */
     private Medication getMedicationByUUID(String bottleUUID){
-        if (true) // TODO just for testing
-            return medications.get(0);
-        if (addressMapping == null){
-            Log.w(TAG, "No address mapping found. Cannot get medication by UUID.");
+        if (bottleUUID == null)
             return null;
-        }
-        return addressMapping.get(bottleUUID);
+        return medicationsByAddress.get(normalizeAddress(bottleUUID));
     }
 
     private Handler bandHandler = new Handler();
 
+    /** Starts and stops the wearable's sensors in response to bottle beacons, see {@link SensorSessionManager}. */
+    private final SensorSessionManager sessionManager = new SensorSessionManager(new SensorSessionManager.SessionListener() {
+        @Override
+        public void onSessionStarted(String address) {
+            Intent intent = new Intent(DataService.this, WearableService.class);
+            intent.setAction(Constants.ACTION.START_SENSORS);
+            intent.putExtra(Constants.KEY.TIMESTAMP, System.currentTimeMillis());
+            intent.putExtra(Constants.KEY.UUID, address);
+            startService(intent);
+            // stop sensors once the session ends
+            bandHandler.removeCallbacksAndMessages(null);
+            bandHandler.postDelayed(DataService.this::onSessionDeadline, SensorSessionManager.SESSION_MS);
+        }
+
+        @Override
+        public void onSessionStopped(String address) {
+            Intent intent = new Intent(DataService.this, WearableService.class);
+            intent.setAction(Constants.ACTION.STOP_SENSORS);
+            startService(intent);
+            Log.d(TAG, "Sensor session for " + address + " ended, " + sessionManager.getSessionsStarted()
+                    + " sessions started, " + sessionManager.getStartsSuppressed() + " starts suppressed.");
+        }
+    });
+
+    /**
+     * Ends the sensor session if it is due, otherwise checks again at the next deadline.
+     */
+    private void onSessionDeadline(){
+        long now = SystemClock.elapsedRealtime();
+        sessionManager.tick(now);
+        long deadline = sessionManager.getNextDeadline();
+        if (deadline >= 0)
+            bandHandler.postDelayed(this::onSessionDeadline, Math.max(0, deadline - now));
+    }
+
     @Override
     public void onBeaconServiceConnect() {
         beaconManager.addRangeNotifier(new RangeNotifier() {
@@ -237,27 +315,12 @@ public class DataService extends Service implements BeaconConsumer {
             public void didRangeBeaconsInRegion(Collection<Beacon> collection, Region region) {
 
                 for (Beacon beacon : collection) {
-                    Log.i(TAG, "Detected Metawear beacon: " + beacon.getBluetoothAddress());
-                    Intent intent = new Intent(DataService.this, WearableService.class);
-                    intent.setAction(Constants.ACTION.START_SENSORS);
-                    intent.putExtra(Constants.KEY.TIMESTAMP, System.currentTimeMillis());
-                    intent.putExtra(Constants.KEY.UUID, region.getBluetoothAddress());
-                    startService(intent);
-
-                    // remove existing scheduled tasks
-                    bandHandler.removeCallbacksAndMessages(null);
-                    // stop sensors after specified time
-                    Runnable runnable = new Runnable() {
-                        @Override
-                        public void run() {
-                            Intent intent = new Intent(DataService.this, WearableService.class);
-                            intent.setAction(Constants.ACTION.STOP_SENSORS);
-                            startService(intent);
-                        }
-                    };
-                    bandHandler.postDelayed(runnable, 20000); // TODO: How long?
-
-
+                    // the region matches any beacon, so ignore those not attached to a bottle
+                    if (getMedicationByUUID(beacon.getBluetoothAddress()) == null)
+                        continue;
+                    Log.d(TAG, "Detected Metawear beacon: " + beacon.getBluetoothAddress());
+                    // starts the sensors only once per session, see SensorSessionManager
+                    sessionManager.onBeaconSighted(normalizeAddress(beacon.getBluetoothAddress()), SystemClock.elapsedRealtime());
                 }
             }
         });
@@ -273,8 +336,8 @@ public class DataService extends Service implements BeaconConsumer {
             String action = intent.getAction();
             if (action != null){
                 Intent forward = new Intent();
-                forward.putExtra(Constants.KEY.MEDICATION, intent.getSerializableExtra(Constants.KEY.MEDICATION));
-                forward.putExtra(Constants.KEY.TIME_TAKEN, intent.getSerializableExtra(Constants.KEY.TIME_TAKEN));
+                forward.putExtra(Constants.KEY.MEDICATION, intent.getParcelableExtra(Constants.KEY.MEDICATION));
+                forward.putExtra(Constants.KEY.TIME_TAKEN, intent.getLongExtra(Constants.KEY.TIME_TAKEN, System.currentTimeMillis()));
                 if (action.equals(Constants.ACTION.PILL_INTAKE_RESPONSE_YES)){
                     forward.putExtra(Constants.KEY.MESSAGE, Constants.MESSAGES.PILL_INTAKE_GESTURE_CONFIRMED);
                     Log.i(TAG, "YES");
@@ -289,6 +352,17 @@ public class DataService extends Service implements BeaconConsumer {
         }
     }
 
+    /**
+     * Returns the image of the given medication, downsampled to the size of a notification icon.
+     * @param medication the medication.
+     * @return the medication image.
+     */
+    private Bitmap getLargeIcon(Medication medication){
+        int width = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        int height = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+        return medication.getImage(this, width, height);
+    }
+
     private void requestUserConfirmation(Medication medication, Calendar timeTaken){
         NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
         builder.setVibrate(Constants.NOTIFICATION_PATTERN);
@@ -308,11 +382,11 @@ public class DataService extends Service implements BeaconConsumer {
 
         builder.setContentTitle(getString(R.string.notification_gesture_detected_title));
         builder.setContentText(prompt);
-        builder.setLargeIcon(medication.getImage());
+        builder.setLargeIcon(getLargeIcon(medication));
         // TODO : after API 23, you can use the medication image as the small icon; before that, use the pill icon
         // see https://stackoverflow.com/questions/23836920/how-to-set-bitmap-as-notification-icon-in-android
 //        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-//            builder.setSmallIcon(Icon.createWithBitmap(medication.getImage()));
+//            builder.setSmallIcon(Icon.createWithBitmap(getLargeIcon(medication)));
 //        } else {
 //            builder.setSmallIcon(R.drawable.ic_pill_white_24dp);
 //        }
@@ -334,18 +408,21 @@ public class DataService extends Service implements BeaconConsumer {
         PendingIntent pendingIntent = PendingIntent.getActivity(this, 113, intent, PendingIntent.FLAG_UPDATE_CURRENT);
         builder.setFullScreenIntent(pendingIntent, true);
 
+        // only a reference to the medication is passed, so that its images are not parceled
+        MedicationRef medicationRef = dataIO.getMedicationRef(this, medication);
+
         //Yes intent
         Intent yesReceive = new Intent(DataService.this, NotificationResponseReceiver.class);
-        yesReceive.putExtra(Constants.KEY.MEDICATION, medication);
-        yesReceive.putExtra(Constants.KEY.TIME_TAKEN, timeTaken);
+        yesReceive.putExtra(Constants.KEY.MEDICATION, medicationRef);
+        yesReceive.putExtra(Constants.KEY.TIME_TAKEN, timeTaken.getTimeInMillis());
         yesReceive.setAction(Constants.ACTION.PILL_INTAKE_RESPONSE_YES);
         PendingIntent pendingIntentYes = PendingIntent.getBroadcast(this, 12345, yesReceive, PendingIntent.FLAG_UPDATE_CURRENT);
         builder.addAction(R.drawable.ic_check_white_24dp, "Yes", pendingIntentYes);
 
         //No intent
         Intent noReceive = new Intent(DataService.this, NotificationResponseReceiver.class);
-        noReceive.putExtra(Constants.KEY.MEDICATION, medication);
-        noReceive.putExtra(Constants.KEY.TIME_TAKEN, timeTaken);
+        noReceive.putExtra(Constants.KEY.MEDICATION, medicationRef);
+        noReceive.putExtra(Constants.KEY.TIME_TAKEN, timeTaken.getTimeInMillis());
         noReceive.setAction(Constants.ACTION.PILL_INTAKE_RESPONSE_NO);
         PendingIntent pendingIntentNo = PendingIntent.getBroadcast(this, 12345, noReceive, PendingIntent.FLAG_UPDATE_CURRENT);
         builder.addAction(R.drawable.ic_highlight_off_white_24dp, "No", pendingIntentNo);
@@ -364,26 +441,19 @@ public class DataService extends Service implements BeaconConsumer {
     }
 
     private void onPillIntakeGestureConfirmed(Medication medication, Calendar timeTaken){
-        Calendar dateKey = Utils.getDateKey(timeTaken);
-        Map<Medication, Adherence[]> singleDayAdherenceData = adherenceData.get(dateKey);
-        if (singleDayAdherenceData == null) {
-            Log.w(TAG, "Warning : No adherence data found for " + Constants.DATE_FORMAT.MONTH_DAY_YEAR.format(dateKey.getTime()));
-            singleDayAdherenceData = new HashMap<>();
-        }
-        Adherence[] medicationAdherence = singleDayAdherenceData.get(medication); // TODO: check for null pointer here
-        if (medicationAdherence == null)
-            medicationAdherence = new Adherence[2];
         Calendar[] medicationSchedule = schedule.get(medication);
         if (medicationSchedule != null) {
             int threshold = 90; // 2 hr before, 4 hr after
             // TODO : Must decide if first or second pill (may be tricky if taken sometime in between)
             int differenceInMin = medicationSchedule[0].get(Calendar.MINUTE) + 60 * medicationSchedule[0].get(Calendar.HOUR_OF_DAY);
+            final Adherence adherence;
             if (differenceInMin <= threshold) {
-                medicationAdherence[0] = new Adherence(Adherence.AdherenceType.TAKEN, timeTaken);
+                adherence = new Adherence(Adherence.AdherenceType.TAKEN, timeTaken);
             } else {
-                medicationAdherence[0] = new Adherence(Adherence.AdherenceType.TAKEN_EARLY_OR_LATE, timeTaken);
+                adherence = new Adherence(Adherence.AdherenceType.TAKEN_EARLY_OR_LATE, timeTaken);
             }
-            dataIO.setAdherenceData(this, adherenceData);
+            // only the single dose is appended to disk, rather than the entire adherence data
+            dataIO.setAdherence(this, timeTaken, medication, 0, adherence);
         }
         cancelPillIntakeNotification(this);
     }
@@ -402,9 +472,21 @@ public class DataService extends Service implements BeaconConsumer {
             return;
         }
 
+        // the same gesture may be detected both on the device and by the server
+        long time = timeTaken.getTimeInMillis();
+        String address = normalizeAddress(bottleUUID);
+        synchronized (lastPillIntakeGestureTimes) {
+            Long lastTime = lastPillIntakeGestureTimes.get(address);
+            if (lastTime != null && Math.abs(time - lastTime) < DUPLICATE_GESTURE_INTERVAL_MS) {
+                Log.d(TAG, "Ignoring duplicate pill intake gesture.");
+                return;
+            }
+            lastPillIntakeGestureTimes.put(address, time);
+        }
+
         Intent intent = new Intent(DataService.this, WearableService.class);
         intent.setAction(Constants.ACTION.PUSH_NOTIFICATION_TO_MSBAND);
-        intent.putExtra(Constants.KEY.MEDICATION, medication);
+        intent.putExtra(Constants.KEY.MEDICATION, dataIO.getMedicationRef(this, medication));
         startService(intent);
 
         userResponded = false; // indicates whether user responded (either positively or negatively)
@@ -428,8 +510,14 @@ public class DataService extends Service implements BeaconConsumer {
                     switch (message){
                         case Constants.MESSAGES.PILL_INTAKE_GESTURE_CONFIRMED:
                             userResponded = true;
-                            Medication medication = (Medication) intent.getSerializableExtra(Constants.KEY.MEDICATION);
-                            Calendar timeTaken = (Calendar) intent.getSerializableExtra(Constants.KEY.TIME_TAKEN);
+                            MedicationRef medicationRef = intent.getParcelableExtra(Constants.KEY.MEDICATION);
+                            Medication medication = dataIO.getMedication(context, medicationRef);
+                            if (medication == null) {
+                                Log.w(TAG, "Confirmed pill intake for unknown medication " + medicationRef);
+                                cancelPillIntakeNotification(context);
+                                break;
+                            }
+                            Calendar timeTaken = Utils.timestampToCalendar(intent.getLongExtra(Constants.KEY.TIME_TAKEN, System.currentTimeMillis()));
                             onPillIntakeGestureConfirmed(medication, timeTaken);
                             break;
                         case Constants.MESSAGES.PILL_INTAKE_GESTURE_DENIED:
@@ -447,6 +535,12 @@ public class DataService extends Service implements BeaconConsumer {
 
     private boolean userResponded = false;
 
+    /** The time in milliseconds of the last pill intake gesture handled, keyed by normalized bottle address. */
+    private final Map<String, Long> lastPillIntakeGestureTimes = new HashMap<>();
+
+    /** Gestures from the same bottle closer together than this many milliseconds are considered the same gesture. */
+    private static final long DUPLICATE_GESTURE_INTERVAL_MS = 60000;
+
     /**
      * Broadcasts a message to other application components indicating that a
      * pill intake gesture has occurred.
@@ -456,8 +550,8 @@ public class DataService extends Service implements BeaconConsumer {
     private void broadcastPillIntakeGestureDetected(Medication medication, Calendar timeTaken){
         Intent intent = new Intent();
         intent.putExtra(Constants.KEY.MESSAGE, Constants.MESSAGES.PILL_INTAKE_GESTURE_DETECTED);
-        intent.putExtra(Constants.KEY.MEDICATION, medication);
-        intent.putExtra(Constants.KEY.TIME_TAKEN, timeTaken);
+        intent.putExtra(Constants.KEY.MEDICATION, dataIO.getMedicationRef(this, medication));
+        intent.putExtra(Constants.KEY.TIME_TAKEN, timeTaken.getTimeInMillis());
         intent.setAction(Constants.ACTION.BROADCAST_MESSAGE);
         LocalBroadcastManager manager = LocalBroadcastManager.getInstance(this);
         manager.sendBroadcast(intent);
@@ -481,16 +575,32 @@ public class DataService extends Service implements BeaconConsumer {
                         Log.i(TAG, "Data update received from server.");
                         JSONObject data = json.getJSONObject("data");
 
-                        JSONObject newAdherenceData = data.getJSONObject("adherence_data");
                         JSONObject newSchedule = data.getJSONObject("schedule");
                         JSONArray newMedications = data.getJSONArray("medications");
+                        long version = data.optLong("version", DataIO.NO_VERSION);
 
+                        // nothing is saved unless the entire update is read successfully
+                        DataIO.Transaction transaction = dataIO.beginTransaction();
+                        ArrayList<Medication> previousMedications = medications;
+                        Map<Medication, Calendar[]> previousSchedule = schedule;
                         try {
-                            updateMedications(newMedications);
-                            updateSchedule(newSchedule);
-                            updateAdherenceData(newAdherenceData);
-                        } catch (JSONException | ParseException e){
-                            e.printStackTrace(); // TODO revert on error? Currently not respecting ACID properties
+                            updateMedications(newMedications, transaction);
+                            updateSchedule(newSchedule, transaction);
+                            if (data.has("adherence_delta")) {
+                                updateAdherenceData(data.getJSONObject("adherence_delta"),
+                                        data.getLong("base_version"), version, transaction);
+                            } else {
+                                updateAdherenceData(data.getJSONObject("adherence_data"), version, transaction);
+                            }
+                            if (!transaction.commit(DataService.this)) {
+                                Log.w(TAG, "Failed to save data update from server.");
+                                medications = previousMedications;
+                                schedule = previousSchedule;
+                            }
+                        } catch (JSONException | ParseException | IOException e){
+                            e.printStackTrace();
+                            medications = previousMedications;
+                            schedule = previousSchedule;
                         }
                     }
                 } catch (JSONException e) {
@@ -509,6 +619,9 @@ public class DataService extends Service implements BeaconConsumer {
                 stop();
             } else if (intent.getAction().equals(Constants.ACTION.SCHEDULE_REMINDERS)) {
                 scheduleReminders();
+            } else if (intent.getAction().equals(Constants.ACTION.PILL_INTAKE_GESTURE_DETECTED)) {
+                long timestamp = intent.getLongExtra(Constants.KEY.TIMESTAMP, System.currentTimeMillis());
+                onPillIntakeGestureDetected(Utils.timestampToCalendar(timestamp), intent.getStringExtra(Constants.KEY.UUID));
             }
         } else {
             Log.d(TAG, "Service restarted after killed by OS.");
@@ -531,7 +644,7 @@ public class DataService extends Service implements BeaconConsumer {
         beaconManager.bind(this);
         if (dataIO == null){
             dataIO = DataIO.getInstance(this);
-            dataIO.addOnDataChangedListener(this::loadData); // reload data when changed
+            dataIO.addOnDataChangedListener(this::onDataChanged); // reload data when changed
         }
         loadData();
 
@@ -557,6 +670,8 @@ public class DataService extends Service implements BeaconConsumer {
         }
 
         mClient.disconnect(); // TODO check this works
+        if (dataIO != null)
+            dataIO.flush();
     }
 
     /**
@@ -683,10 +798,10 @@ public class DataService extends Service implements BeaconConsumer {
                 getString(R.string.pref_notification_text_key),
                 getString(R.string.default_notification_text));
         builder.setContentText(String.format(notificationText, medication.getName(), dosageMapping.get(medication)));
-        builder.setLargeIcon(medication.getImage());
+        builder.setLargeIcon(getLargeIcon(medication));
         // see https://stackoverflow.com/questions/23836920/how-to-set-bitmap-as-notification-icon-in-android
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            builder.setSmallIcon(Icon.createWithBitmap(medication.getImage()));
+            builder.setSmallIcon(Icon.createWithBitmap(getLargeIcon(medication)));
         } else {
             builder.setSmallIcon(R.drawable.ic_pill_white_24dp);
         }
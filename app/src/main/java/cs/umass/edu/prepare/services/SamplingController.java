@@ -0,0 +1,128 @@
+package cs.umass.edu.prepare.services;
+
+/**
+ * Decides at which rate the wearable's sensors are sampled, so that the sensors run at the full
+ * rate only while the wrist is moving. Sampling starts at the low rate. Once the motion energy,
+ * a smoothed magnitude of the angular velocity, exceeds {@link #ESCALATE_THRESHOLD}, the high
+ * rate is requested; once it has stayed below {@link #RELAX_THRESHOLD} for {@link #HOLD_MS},
+ * the low rate is requested again.
+ *
+ * The controller also counts the samples received, and the samples saved compared to sampling
+ * at the high rate throughout.
+ */
+class SamplingController {
+
+    /**
+     * Notified when the sampling rate should change.
+     */
+    interface OnRateChangeListener {
+        /**
+         * @param high true if the sensors should be sampled at the high rate, false for the low rate.
+         */
+        void onRateChange(boolean high);
+    }
+
+    /** The sampling interval in milliseconds at the high rate, i.e. SampleRate.MS16. */
+    static final long HIGH_RATE_INTERVAL_MS = 16;
+
+    /** The motion energy in degrees per second above which the high rate is requested. */
+    static final float ESCALATE_THRESHOLD = 30f;
+
+    /** The motion energy in degrees per second below which the low rate may be requested. */
+    static final float RELAX_THRESHOLD = 10f;
+
+    /** The time in milliseconds the motion energy must stay low before the low rate is requested. */
+    static final long HOLD_MS = 3000;
+
+    /** The time constant in milliseconds over which the motion energy is smoothed. */
+    private static final float SMOOTHING_MS = 250f;
+
+    private final OnRateChangeListener listener;
+
+    private boolean high;
+
+    /** The smoothed magnitude of the angular velocity. */
+    private float motionEnergy;
+
+    /** The time of the previous sample, or -1 if none has been received since starting. */
+    private long lastSample = -1;
+
+    /** The time at which the motion energy last exceeded {@link #RELAX_THRESHOLD}. */
+    private long lastMotion;
+
+    private long startTime;
+
+    private long stopTime;
+
+    private long samples;
+
+    SamplingController(OnRateChangeListener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a sampling session at the low rate.
+     * @param time the current time in milliseconds.
+     */
+    synchronized void start(long time){
+        high = false;
+        motionEnergy = 0;
+        lastSample = -1;
+        startTime = time;
+        stopTime = -1;
+        samples = 0;
+    }
+
+    /**
+     * Updates the motion energy with a sample, and requests a different rate if required.
+     */
+    synchronized void onSample(long timestamp, float gyroscopeX, float gyroscopeY, float gyroscopeZ){
+        samples++;
+        float magnitude = (float) Math.sqrt(gyroscopeX * gyroscopeX + gyroscopeY * gyroscopeY + gyroscopeZ * gyroscopeZ);
+        if (lastSample < 0) {
+            motionEnergy = magnitude;
+        } else {
+            float alpha = 1 - (float) Math.exp(-Math.max(0, timestamp - lastSample) / SMOOTHING_MS);
+            motionEnergy += alpha * (magnitude - motionEnergy);
+        }
+        lastSample = timestamp;
+        if (motionEnergy >= RELAX_THRESHOLD)
+            lastMotion = timestamp;
+
+        if (!high && motionEnergy >= ESCALATE_THRESHOLD) {
+            high = true;
+            listener.onRateChange(true);
+        } else if (high && timestamp - lastMotion >= HOLD_MS) {
+            high = false;
+            listener.onRateChange(false);
+        }
+    }
+
+    /**
+     * Ends the sampling session.
+     * @param time the current time in milliseconds.
+     */
+    synchronized void stop(long time){
+        stopTime = time;
+    }
+
+    synchronized boolean isHighRate(){
+        return high;
+    }
+
+    /**
+     * Returns the number of samples received in the current or last session.
+     */
+    synchronized long getSamples(){
+        return samples;
+    }
+
+    /**
+     * Returns the number of samples which would have been received in the current or last
+     * session at the high rate, but were not.
+     */
+    synchronized long getSamplesSaved(){
+        long end = stopTime < 0 ? lastSample : stopTime;
+        return Math.max(0, (end - startTime) / HIGH_RATE_INTERVAL_MS - samples);
+    }
+}
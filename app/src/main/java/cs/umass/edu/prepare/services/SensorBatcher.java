@@ -0,0 +1,142 @@
+package cs.umass.edu.prepare.services;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Accumulates accelerometer and gyroscope samples into frames, so that the samples are sent to
+ * the server in one message per frame, rather than in two messages per sample. The frames are
+ * preallocated primitive arrays, reused in a ring, so adding a sample allocates nothing.
+ *
+ * A frame is sent once it is full, or once its oldest sample is older than the maximum age. It
+ * is sent on the given executor, so that the sensor callback never waits for the frame to be
+ * serialized or sent; the frame is reused once {@link FrameSender#send(Frame)} returns. If the
+ * sender falls so far behind that every frame is waiting to be sent, samples are dropped.
+ */
+class SensorBatcher {
+
+    /** The number of values per sample: the accelerometer x, y, z and gyroscope x, y, z. */
+    static final int CHANNELS = 6;
+
+    /**
+     * A fixed-size frame of samples.
+     */
+    static class Frame {
+
+        /** The time of each sample in milliseconds. */
+        final long[] timestamps;
+
+        /** The {@link #CHANNELS} values of each sample, interleaved. */
+        final float[] values;
+
+        /** The number of samples in the frame. */
+        int size;
+
+        /** Indicates that the frame has been handed to the sender and may not be written. */
+        private volatile boolean sending;
+
+        Frame(int capacity){
+            timestamps = new long[capacity];
+            values = new float[capacity * CHANNELS];
+        }
+    }
+
+    /**
+     * Sends a frame to the server. The frame may not be accessed after this method returns.
+     */
+    interface FrameSender {
+        void send(Frame frame);
+    }
+
+    private final Frame[] frames;
+
+    private final int frameSize;
+
+    private final long maxAgeMs;
+
+    private final FrameSender sender;
+
+    private final Executor executor;
+
+    /** The index of the frame currently being filled. */
+    private int current;
+
+    /** The number of samples dropped since the batcher was created. */
+    private int dropped;
+
+    /**
+     * @param frameSize the number of samples per frame.
+     * @param maxAgeMs the maximum time in milliseconds a sample is held before it is sent.
+     * @param frameCount the number of frames in the ring, i.e. the number of frames which may be
+     *                   waiting to be sent while the next frame is filled.
+     * @param sender sends each frame.
+     * @param executor the executor on which frames are sent.
+     */
+    SensorBatcher(int frameSize, long maxAgeMs, int frameCount, FrameSender sender, Executor executor){
+        this.frameSize = frameSize;
+        this.maxAgeMs = maxAgeMs;
+        this.sender = sender;
+        this.executor = executor;
+        frames = new Frame[frameCount];
+        for (int i = 0; i < frameCount; i++)
+            frames[i] = new Frame(frameSize);
+    }
+
+    /**
+     * Adds a sample, typically from the sensor callback.
+     */
+    synchronized void add(long timestamp, float accelerometerX, float accelerometerY, float accelerometerZ,
+                          float gyroscopeX, float gyroscopeY, float gyroscopeZ){
+        Frame frame = frames[current];
+        if (frame.sending) {
+            dropped++; // the ring is full
+            return;
+        }
+        if (frame.size > 0 && timestamp - frame.timestamps[0] >= maxAgeMs) {
+            flush();
+            frame = frames[current];
+            if (frame.sending) {
+                dropped++;
+                return;
+            }
+        }
+
+        int offset = frame.size * CHANNELS;
+        frame.timestamps[frame.size] = timestamp;
+        frame.values[offset] = accelerometerX;
+        frame.values[offset + 1] = accelerometerY;
+        frame.values[offset + 2] = accelerometerZ;
+        frame.values[offset + 3] = gyroscopeX;
+        frame.values[offset + 4] = gyroscopeY;
+        frame.values[offset + 5] = gyroscopeZ;
+        frame.size++;
+        if (frame.size == frameSize)
+            flush();
+    }
+
+    /**
+     * Sends the frame currently being filled, if it contains any samples, e.g. when the sensors
+     * are unregistered.
+     */
+    synchronized void flush(){
+        final Frame frame = frames[current];
+        if (frame.size == 0 || frame.sending)
+            return;
+        frame.sending = true;
+        current = (current + 1) % frames.length;
+        executor.execute(() -> {
+            try {
+                sender.send(frame);
+            } finally {
+                frame.size = 0;
+                frame.sending = false; // publishes the cleared frame to the sensor thread
+            }
+        });
+    }
+
+    /**
+     * Returns the number of samples dropped because no frame was free.
+     */
+    synchronized int getDropped(){
+        return dropped;
+    }
+}
@@ -0,0 +1,157 @@
+package cs.umass.edu.prepare.services;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides when the wearable's sensors are started and stopped in response to medication bottle
+ * beacons, so that a bottle sitting nearby, which is sighted in every ranging callback, does
+ * not start the sensors over and over again.
+ *
+ * A session is started for a bottle once it has been sighted {@link #DEBOUNCE_SIGHTINGS} times
+ * within {@link #DEBOUNCE_WINDOW_MS}, which filters out beacons at the edge of their range. A
+ * session lasts {@link #SESSION_MS}; starting is idempotent, so sightings during a session, of
+ * any bottle, are suppressed rather than extending or restarting it. After a session has ended,
+ * a new session is started for the same bottle only after {@link #REARM_INTERVAL_MS}.
+ *
+ * The manager holds no timers: the caller passes the current time with each call, and calls
+ * {@link #tick(long)} at {@link #getNextDeadline()}, which also allows it to be driven by a fake
+ * clock in tests. All methods are synchronized, since ranging callbacks arrive on a background thread.
+ */
+class SensorSessionManager {
+
+    /**
+     * Notified when the sensors should be started or stopped.
+     */
+    interface SessionListener {
+        /**
+         * @param address the address of the bottle which started the session.
+         */
+        void onSessionStarted(String address);
+
+        /**
+         * @param address the address of the bottle which started the session.
+         */
+        void onSessionStopped(String address);
+    }
+
+    /** The number of sightings required before a session is started. */
+    static final int DEBOUNCE_SIGHTINGS = 2;
+
+    /** The time in milliseconds within which the sightings must occur. */
+    static final long DEBOUNCE_WINDOW_MS = 5000;
+
+    /** The duration in milliseconds of a session. */
+    static final long SESSION_MS = 20000;
+
+    /** The minimum time in milliseconds between the end of a session and the start of the next session for the same bottle. */
+    static final long REARM_INTERVAL_MS = 60000;
+
+    /**
+     * The state of a single bottle.
+     */
+    private static class Bottle {
+
+        /** The time of the first sighting counted towards starting a session. */
+        long firstSighting;
+
+        /** The number of sightings since {@link #firstSighting}. */
+        int sightings;
+
+        /** The time at which the last session of this bottle ended, or Long.MIN_VALUE if none. */
+        long lastSessionEnd = Long.MIN_VALUE;
+    }
+
+    private final SessionListener listener;
+
+    private final Map<String, Bottle> bottles = new HashMap<>();
+
+    /** The address of the bottle whose session is active, or null if no session is active. */
+    private String activeAddress;
+
+    /** The time at which the active session ends. */
+    private long sessionEnd;
+
+    private int sessionsStarted;
+
+    private int startsSuppressed;
+
+    SensorSessionManager(SessionListener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * Handles a sighting of a bottle's beacon, starting a session if required.
+     * @param address the address of the bottle.
+     * @param now the current time in milliseconds.
+     * @return true if a session was started.
+     */
+    synchronized boolean onBeaconSighted(String address, long now){
+        tick(now);
+        Bottle bottle = bottles.get(address);
+        if (bottle == null) {
+            bottle = new Bottle();
+            bottles.put(address, bottle);
+        }
+        if (activeAddress != null || (bottle.lastSessionEnd != Long.MIN_VALUE && now - bottle.lastSessionEnd < REARM_INTERVAL_MS)) {
+            startsSuppressed++;
+            bottle.sightings = 0;
+            return false;
+        }
+
+        if (bottle.sightings == 0 || now - bottle.firstSighting > DEBOUNCE_WINDOW_MS) {
+            bottle.firstSighting = now;
+            bottle.sightings = 0;
+        }
+        if (++bottle.sightings < DEBOUNCE_SIGHTINGS) {
+            startsSuppressed++;
+            return false;
+        }
+
+        bottle.sightings = 0;
+        activeAddress = address;
+        sessionEnd = now + SESSION_MS;
+        sessionsStarted++;
+        listener.onSessionStarted(address);
+        return true;
+    }
+
+    /**
+     * Stops the active session if it has ended.
+     * @param now the current time in milliseconds.
+     */
+    synchronized void tick(long now){
+        if (activeAddress == null || now < sessionEnd)
+            return;
+        String address = activeAddress;
+        bottles.get(address).lastSessionEnd = sessionEnd;
+        activeAddress = null;
+        listener.onSessionStopped(address);
+    }
+
+    /**
+     * Returns the time at which {@link #tick(long)} should next be called, or -1 if no session is active.
+     */
+    synchronized long getNextDeadline(){
+        return activeAddress == null ? -1 : sessionEnd;
+    }
+
+    synchronized boolean isSessionActive(){
+        return activeAddress != null;
+    }
+
+    /**
+     * Returns the number of sessions started.
+     */
+    synchronized int getSessionsStarted(){
+        return sessionsStarted;
+    }
+
+    /**
+     * Returns the number of sightings which did not start a session, each of which previously
+     * started the sensors.
+     */
+    synchronized int getStartsSuppressed(){
+        return startsSuppressed;
+    }
+}
@@ -0,0 +1,209 @@
+package cs.umass.edu.prepare.services;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Holds frames of sensor samples on disk while the server is unreachable, so that they can be
+ * sent in bulk once the connection is restored, see {@link #drain(SensorBatcher.Frame, SensorBatcher.FrameSender)}.
+ *
+ * Frames are appended to memory-mapped segment files of {@link #SEGMENT_SIZE} bytes each, so
+ * appending a frame is a memory copy rather than a write system call. When a segment is full,
+ * a new segment is started. Disk usage is bounded: once there are more than the maximum number
+ * of segments, the oldest segment is deleted, i.e. the oldest frames are dropped. Each frame is
+ * stored as a record
+ *
+ * <pre>
+ * int          length L of the frame in bytes
+ * int          number of samples N
+ * N * long     the time of each sample
+ * N * 6 float  the values of each sample, see {@link SensorBatcher#CHANNELS}
+ * </pre>
+ *
+ * The length is written after the frame, and segments are zero-filled, so a length of zero
+ * marks the end of a segment, also if the application was killed while appending a frame.
+ * Segments left behind by a previous process are drained as well.
+ *
+ * The spool is not thread-safe; it is only accessed from the uplink thread.
+ */
+class SensorSpool {
+
+    /** used for debugging purposes */
+    private static final String TAG = SensorSpool.class.getName();
+
+    /** The size of each segment file in bytes. */
+    static final int SEGMENT_SIZE = 1 << 20;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    /** The directory holding the segment files. */
+    private final File directory;
+
+    /** The maximum number of segment files. */
+    private final int maxSegments;
+
+    /** The sequence numbers of the segments on disk, oldest first. */
+    private long[] segments;
+
+    /** The segment to which frames are appended, null if none has been started. */
+    private MappedByteBuffer current;
+
+    /** The number of frames dropped since the spool was opened. */
+    private int dropped;
+
+    /**
+     * Opens the spool in the given directory, including any segments left behind previously.
+     * @param directory the directory holding the segment files.
+     * @param maxSegments the maximum number of segment files, which bounds the disk usage to
+     *                    maxSegments * {@link #SEGMENT_SIZE} bytes.
+     */
+    SensorSpool(File directory, int maxSegments){
+        this.directory = directory;
+        this.maxSegments = maxSegments;
+        String[] filenames = directory.list();
+        int count = 0;
+        segments = new long[filenames == null ? 0 : filenames.length];
+        if (filenames != null) {
+            for (String filename : filenames) {
+                if (!filename.startsWith(SEGMENT_PREFIX))
+                    continue;
+                try {
+                    segments[count++] = Long.parseLong(filename.substring(SEGMENT_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring unexpected file " + filename);
+                }
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+    }
+
+    private File getSegmentFile(long sequenceNumber){
+        return new File(directory, SEGMENT_PREFIX + sequenceNumber);
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            return randomAccessFile.getChannel().map(mode, 0, mode == FileChannel.MapMode.READ_ONLY ? randomAccessFile.length() : SEGMENT_SIZE);
+        } finally {
+            randomAccessFile.close(); // the mapping remains valid
+        }
+    }
+
+    /**
+     * Positions the buffer after the last complete record.
+     */
+    private static void seekEnd(MappedByteBuffer buffer){
+        int position = 0;
+        while (position + 4 <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + 4 + length > buffer.limit())
+                break;
+            position += 4 + length;
+        }
+        buffer.position(position);
+    }
+
+    /**
+     * Appends a frame. If the spool is full, the oldest segment is dropped.
+     * @param frame the frame.
+     * @throws IOException if a segment could not be created.
+     */
+    void append(SensorBatcher.Frame frame) throws IOException {
+        int length = 4 + frame.size * (8 + 4 * SensorBatcher.CHANNELS);
+        if (4 + length > SEGMENT_SIZE)
+            throw new IllegalArgumentException("Frame of " + frame.size + " samples exceeds the segment size");
+        if (current == null && segments.length > 0) {
+            current = map(getSegmentFile(segments[segments.length - 1]), FileChannel.MapMode.READ_WRITE);
+            seekEnd(current);
+        }
+        if (current == null || current.remaining() < 4 + length + 4) // keep a zero length after the record
+            startSegment();
+
+        int start = current.position();
+        current.position(start + 4);
+        current.putInt(frame.size);
+        for (int i = 0; i < frame.size; i++)
+            current.putLong(frame.timestamps[i]);
+        for (int i = 0; i < frame.size * SensorBatcher.CHANNELS; i++)
+            current.putFloat(frame.values[i]);
+        current.putInt(start, length); // only now is the record complete
+    }
+
+    private void startSegment() throws IOException {
+        long sequenceNumber = segments.length == 0 ? 0 : segments[segments.length - 1] + 1;
+        segments = Arrays.copyOf(segments, segments.length + 1);
+        segments[segments.length - 1] = sequenceNumber;
+        while (segments.length > maxSegments) {
+            dropped += countFrames(segments[0]);
+            deleteSegment(segments[0]);
+            segments = Arrays.copyOfRange(segments, 1, segments.length);
+        }
+        current = map(getSegmentFile(sequenceNumber), FileChannel.MapMode.READ_WRITE);
+    }
+
+    private int countFrames(long sequenceNumber) throws IOException {
+        MappedByteBuffer buffer = map(getSegmentFile(sequenceNumber), FileChannel.MapMode.READ_ONLY);
+        seekEnd(buffer);
+        int count = 0;
+        for (int position = 0; position < buffer.position(); position += 4 + buffer.getInt(position))
+            count++;
+        return count;
+    }
+
+    private void deleteSegment(long sequenceNumber){
+        File file = getSegmentFile(sequenceNumber);
+        if (!file.delete())
+            Log.w(TAG, "Failed to delete " + file);
+    }
+
+    /**
+     * Sends all spooled frames, oldest first, and deletes them.
+     * @param frame a frame into which each spooled frame is read, large enough for any spooled frame.
+     * @param sender sends each frame.
+     * @return the number of frames sent.
+     * @throws IOException if a segment could not be read, in which case the unsent frames
+     * remain in the spool.
+     */
+    int drain(SensorBatcher.Frame frame, SensorBatcher.FrameSender sender) throws IOException {
+        current = null;
+        int count = 0;
+        while (segments.length > 0) {
+            MappedByteBuffer buffer = map(getSegmentFile(segments[0]), FileChannel.MapMode.READ_ONLY);
+            seekEnd(buffer);
+            int end = buffer.position();
+            buffer.position(0);
+            while (buffer.position() < end) {
+                buffer.getInt(); // the length
+                frame.size = buffer.getInt();
+                for (int i = 0; i < frame.size; i++)
+                    frame.timestamps[i] = buffer.getLong();
+                for (int i = 0; i < frame.size * SensorBatcher.CHANNELS; i++)
+                    frame.values[i] = buffer.getFloat();
+                sender.send(frame);
+                count++;
+            }
+            deleteSegment(segments[0]);
+            segments = Arrays.copyOfRange(segments, 1, segments.length);
+        }
+        return count;
+    }
+
+    boolean isEmpty(){
+        return segments.length == 0;
+    }
+
+    /**
+     * Returns the number of frames dropped because the spool was full.
+     */
+    int getDropped(){
+        return dropped;
+    }
+}
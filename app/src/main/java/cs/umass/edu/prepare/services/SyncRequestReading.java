@@ -0,0 +1,46 @@
+package cs.umass.edu.prepare.services;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import cs.umass.edu.prepare.constants.Constants;
+import edu.umass.cs.MHLClient.sensors.SensorReading;
+
+/**
+ * Requests the server to send the full adherence data, e.g. when an adherence delta does not
+ * apply to the version of the adherence data held by the client. The MHL client only sends
+ * sensor readings to the server, so the request is sent as a reading of its own sensor type,
+ * see {@link Constants.SERVER_REQUEST#SYNC_ADHERENCE_DATA}.
+ */
+class SyncRequestReading extends SensorReading {
+
+    /** The version of the server's adherence data which the client holds. **/
+    private final long version;
+
+    SyncRequestReading(String userID, String deviceType, String deviceID, long timestamp, long version){
+        super(userID, deviceType, deviceID, Constants.SERVER_REQUEST.SYNC_ADHERENCE_DATA, timestamp);
+        this.version = version;
+    }
+
+    @Override
+    protected JSONObject toJSONObject() {
+        JSONObject obj = new JSONObject();
+        JSONObject data = new JSONObject();
+
+        try {
+            obj.put("user_id", userID);
+            obj.put("device_type", deviceType);
+            obj.put("device_id", deviceID);
+            obj.put("sensor_type", sensorType);
+
+            data.put("t", timestamp);
+            data.put("version", version);
+
+            obj.put("data", data);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        return obj;
+    }
+}
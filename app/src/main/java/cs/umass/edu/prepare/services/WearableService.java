@@ -9,7 +9,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.AsyncTask;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.LocalBroadcastManager;
@@ -27,17 +29,21 @@ import com.microsoft.band.sensors.BandGyroscopeEvent;
 import com.microsoft.band.sensors.BandGyroscopeEventListener;
 import com.microsoft.band.sensors.SampleRate;
 
+import java.io.IOException;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import cs.umass.edu.prepare.R;
 import cs.umass.edu.prepare.constants.Constants;
 import cs.umass.edu.prepare.data.DataIO;
 import cs.umass.edu.prepare.data.Medication;
+import cs.umass.edu.prepare.data.MedicationRef;
+import cs.umass.edu.prepare.detection.PillIntakeDetector;
 import cs.umass.edu.prepare.view.activities.CalendarActivity;
 import edu.umass.cs.MHLClient.client.ConnectionStateHandler;
 import edu.umass.cs.MHLClient.client.MobileIOClient;
-import edu.umass.cs.MHLClient.sensors.AccelerometerReading;
-import edu.umass.cs.MHLClient.sensors.GyroscopeReading;
 
 /**
  * The WearableService is responsible for starting and stopping the sensors on the Band and receiving
@@ -70,6 +76,60 @@ public class WearableService extends Service implements BandGyroscopeEventListen
     /** Gives access to persisted and in-memory data (adherence, medications, etc.) */
     protected DataIO dataIO;
 
+    /** The number of samples sent per message, about one second of data at {@link SampleRate#MS16}. */
+    private static final int SAMPLES_PER_FRAME = 64;
+
+    /** The maximum time in milliseconds a sample is held before it is sent. */
+    private static final long MAX_FRAME_AGE_MS = 2000;
+
+    /** The number of frames which may be waiting to be sent while the next frame is filled. */
+    private static final int FRAME_COUNT = 4;
+
+    /** Serializes and sends frames of sensor samples, so that the sensor callback never blocks. */
+    private final ExecutorService uplinkExecutor = Executors.newSingleThreadExecutor();
+
+    /** Accumulates sensor samples, which are sent to the server one frame at a time. */
+    private final SensorBatcher sensorBatcher = new SensorBatcher(SAMPLES_PER_FRAME, MAX_FRAME_AGE_MS, FRAME_COUNT,
+            this::sendFrame, uplinkExecutor);
+
+    /** Indicates whether the sampling rate is raised only while the wrist is moving, see {@link SamplingController}. */
+    private static final boolean ADAPTIVE_SAMPLING = true;
+
+    /** The sampling rate while the wrist is at rest, if {@link #ADAPTIVE_SAMPLING} is enabled. */
+    private static final SampleRate LOW_SAMPLE_RATE = SampleRate.MS128;
+
+    /** Raises the sampling rate to {@link SampleRate#MS16} only while the wrist is moving. */
+    private final SamplingController samplingController = new SamplingController(this::onSampleRateChange);
+
+    /** Indicates whether the sensors are registered, so that a pending rate change does not re-register them. */
+    private volatile boolean sensorsRegistered = false;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Detects pill intake gestures on the device, rather than waiting for the server. */
+    private final PillIntakeDetector pillIntakeDetector = new PillIntakeDetector(this::onPillIntakeGestureDetected);
+
+    /** The maximum interval in milliseconds between samples at {@link SampleRate#MS16}, allowing for jitter. */
+    private static final long FULL_RATE_MAX_INTERVAL_MS = 3 * SamplingController.HIGH_RATE_INTERVAL_MS;
+
+    /** The time of the previous sample, or -1 if none has been received since the sensors were registered. */
+    private long lastSampleTime = -1;
+
+    /** The address of the medication bottle whose beacon started the sensors. */
+    private volatile String bottleUUID;
+
+    /** The directory in which frames are spooled while the server is unreachable. */
+    private static final String SPOOL_DIRECTORY = "sensor_spool";
+
+    /** The maximum number of spool segments, about 2 hours of data at {@link SampleRate#MS16}. */
+    private static final int MAX_SPOOL_SEGMENTS = 16;
+
+    /** Holds frames while the server is unreachable. Only accessed on the uplink executor. */
+    private SensorSpool sensorSpool;
+
+    /** Indicates whether the server connection is established, in which case frames are sent directly. */
+    private volatile boolean serverConnected = false;
+
     /** Used for starting the service in the foreground. */
     private static final int SERVICE_ID = 4001;
 
@@ -89,6 +149,7 @@ public class WearableService extends Service implements BandGyroscopeEventListen
         super.onCreate();
         Log.i(TAG, "onCreate()");
         dataIO = DataIO.getInstance(this);
+        sensorSpool = new SensorSpool(getDir(SPOOL_DIRECTORY, MODE_PRIVATE), MAX_SPOOL_SEGMENTS);
         IntentFilter bluetoothStateFiler = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
         registerReceiver(bluetoothStateReceiver, bluetoothStateFiler);
     }
@@ -97,13 +158,18 @@ public class WearableService extends Service implements BandGyroscopeEventListen
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null && intent.getAction() != null){
             if (intent.getAction().equals(Constants.ACTION.PUSH_NOTIFICATION_TO_MSBAND)){
-                Medication medication = (Medication) intent.getSerializableExtra(Constants.KEY.MEDICATION);
-                sendNotificationToWearable(medication);
+                MedicationRef medicationRef = intent.getParcelableExtra(Constants.KEY.MEDICATION);
+                Medication medication = dataIO.getMedication(this, medicationRef);
+                if (medication != null)
+                    sendNotificationToWearable(medication);
+                else
+                    Log.w(TAG, "No medication found for " + medicationRef);
             } else if (intent.getAction().equals(Constants.ACTION.START_SERVICE)) {
                 start();
             } else if (intent.getAction().equals(Constants.ACTION.STOP_SERVICE)) {
                 stop();
             } else if (intent.getAction().equals(Constants.ACTION.START_SENSORS)) {
+                bottleUUID = intent.getStringExtra(Constants.KEY.UUID);
                 connect(new BandConnectionCallback() {
                     @Override
                     public void onBandConnected() {
@@ -160,11 +226,19 @@ public class WearableService extends Service implements BandGyroscopeEventListen
     @Override
     public void onConnected() {
         Log.d(TAG, "Connected to server");
+        serverConnected = true;
+        try {
+            uplinkExecutor.execute(this::drainSpool);
+        } catch (RejectedExecutionException e) {
+            // the client outlives the service and may still report connections after onDestroy
+            Log.d(TAG, "Service destroyed, not draining the spool.");
+        }
         broadcastMessage(Constants.MESSAGES.SERVER_CONNECTION_SUCCEEDED);
     }
 
     @Override
     public void onConnectionFailed(Exception e) {
+        serverConnected = false; // spool frames until the connection is restored
         e.printStackTrace();
         Log.d(TAG, "Connection attempt failed.");
         broadcastMessage(Constants.MESSAGES.SERVER_CONNECTION_FAILED);
@@ -281,13 +355,17 @@ public class WearableService extends Service implements BandGyroscopeEventListen
      * Registers the accelerometer and gyroscope sensors.
      */
     protected void registerSensors() {
+        pillIntakeDetector.reset(); // before any callback, so that samples before the gap are not classified
+        lastSampleTime = -1;
+        samplingController.start(System.currentTimeMillis());
         try {
             // TODO
-            bandClient.getSensorManager().registerGyroscopeEventListener(this, SampleRate.MS16);
+            bandClient.getSensorManager().registerGyroscopeEventListener(this, ADAPTIVE_SAMPLING ? LOW_SAMPLE_RATE : SampleRate.MS16);
         } catch (BandIOException e) {
             e.printStackTrace();
             return;
         }
+        sensorsRegistered = true;
         connectToServer();
         startForeground(SERVICE_ID, getNotification(BAND_STATUS.COLLECTING_SENSOR_DATA));
     }
@@ -298,7 +376,12 @@ public class WearableService extends Service implements BandGyroscopeEventListen
     public void unregisterSensors() {
         if (bandClient != null) {
             try {
+                sensorsRegistered = false;
                 bandClient.getSensorManager().unregisterAllListeners();
+                sensorBatcher.flush();
+                samplingController.stop(System.currentTimeMillis());
+                Log.i(TAG, "Received " + samplingController.getSamples() + " samples, "
+                        + samplingController.getSamplesSaved() + " fewer than at the full sampling rate.");
                 disconnect();
             } catch (BandIOException e) {
                 Log.w(TAG, getString(R.string.err_default) + e.getMessage());
@@ -338,6 +421,70 @@ public class WearableService extends Service implements BandGyroscopeEventListen
         }
     }
 
+    /**
+     * Re-registers the gyroscope at the rate requested by the {@link SamplingController}. Called
+     * on the sensor thread; the listener is re-registered on the main thread.
+     * @param high true for {@link SampleRate#MS16}, false for {@link #LOW_SAMPLE_RATE}.
+     */
+    private void onSampleRateChange(boolean high){
+        Log.d(TAG, "Sampling at " + (high ? SampleRate.MS16 : LOW_SAMPLE_RATE));
+        mainHandler.post(() -> {
+            if (bandClient == null || !sensorsRegistered)
+                return;
+            try {
+                bandClient.getSensorManager().unregisterGyroscopeEventListener(this);
+                bandClient.getSensorManager().registerGyroscopeEventListener(this, high ? SampleRate.MS16 : LOW_SAMPLE_RATE);
+            } catch (BandIOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Forwards a pill intake gesture detected on the device to the {@link DataService}, which
+     * handles it as it does a gesture detected by the server. Called on the sensor thread.
+     * @param timestamp the time at which the gesture was detected.
+     */
+    private void onPillIntakeGestureDetected(long timestamp){
+        Log.i(TAG, "Pill intake gesture detected on the device.");
+        Intent intent = new Intent(this, DataService.class);
+        intent.setAction(Constants.ACTION.PILL_INTAKE_GESTURE_DETECTED);
+        intent.putExtra(Constants.KEY.TIMESTAMP, timestamp);
+        intent.putExtra(Constants.KEY.UUID, bottleUUID);
+        startService(intent);
+    }
+
+    /**
+     * Sends a frame of sensor samples to the server, or spools it if the server is unreachable.
+     * Called on the uplink executor.
+     * @param frame the frame.
+     */
+    private void sendFrame(SensorBatcher.Frame frame){
+        if (serverConnected && sensorSpool.isEmpty()) {
+            mClient.sendSensorReading(new BatchedSensorReading(mUserID, "WEARABLE", "", frame));
+            return;
+        }
+        try {
+            sensorSpool.append(frame); // until the spool is drained, so that frames are sent in order
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends all spooled frames to the server. Called on the uplink executor.
+     */
+    private void drainSpool(){
+        try {
+            int count = sensorSpool.drain(new SensorBatcher.Frame(SAMPLES_PER_FRAME),
+                    frame -> mClient.sendSensorReading(new BatchedSensorReading(mUserID, "WEARABLE", "", frame)));
+            if (count > 0)
+                Log.i(TAG, "Sent " + count + " spooled frames, " + sensorSpool.getDropped() + " frames dropped.");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void onBandGyroscopeChanged(BandGyroscopeEvent event) {
         float accelerometerX = event.getAccelerationX();
@@ -349,10 +496,21 @@ public class WearableService extends Service implements BandGyroscopeEventListen
 
         long timestamp = System.currentTimeMillis(); //event.getTimestamp();
 
-        mClient.sendSensorReading(new AccelerometerReading(mUserID, "WEARABLE", "", timestamp,
-                accelerometerX, accelerometerY, accelerometerZ));
-        mClient.sendSensorReading(new GyroscopeReading(mUserID, "WEARABLE", "", timestamp,
-                gyroscopeX, gyroscopeY, gyroscopeZ));
+        sensorBatcher.add(timestamp, accelerometerX, accelerometerY, accelerometerZ,
+                gyroscopeX, gyroscopeY, gyroscopeZ);
+        // the detector's windows assume the full rate, so it is only fed once samples arrive at
+        // that rate, i.e. after the re-registration requested by the sampling controller
+        boolean fullRate = (!ADAPTIVE_SAMPLING || samplingController.isHighRate())
+                && lastSampleTime >= 0 && timestamp - lastSampleTime <= FULL_RATE_MAX_INTERVAL_MS;
+        lastSampleTime = timestamp;
+        if (fullRate) {
+            pillIntakeDetector.add(timestamp, accelerometerX, accelerometerY, accelerometerZ,
+                    gyroscopeX, gyroscopeY, gyroscopeZ);
+        } else {
+            pillIntakeDetector.reset(); // so that a window never spans samples at the low rate
+        }
+        if (ADAPTIVE_SAMPLING)
+            samplingController.onSample(timestamp, gyroscopeX, gyroscopeY, gyroscopeZ);
 
         // to broadcast to other application components e.g. to UI
 //        broadcaster.broadcastSensorReading(Constants.SENSOR_TYPE.ACCELEROMETER_WEARABLE, timestamp,
@@ -551,5 +709,7 @@ public class WearableService extends Service implements BandGyroscopeEventListen
         super.onDestroy();
 
         unregisterReceiver(bluetoothStateReceiver);
+        uplinkExecutor.shutdown(); // after sending any frames already flushed
+        dataIO.flush();
     }
 }
\ No newline at end of file
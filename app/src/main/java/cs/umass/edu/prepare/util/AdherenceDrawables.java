@@ -0,0 +1,62 @@
+package cs.umass.edu.prepare.util;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+
+import cs.umass.edu.prepare.data.Adherence;
+
+/**
+ * A cache of the drawables displaying each adherence type. Each drawable is built once by
+ * {@link Utils#getDrawableForAdherence(Context, Adherence.AdherenceType)}; afterwards, its
+ * {@link Drawable.ConstantState} is shared, so the colors and strokes are not resolved again and
+ * each view only receives a lightweight drawable backed by the shared state. The drawables may
+ * therefore not be mutated.
+ *
+ * The cache is cleared when the configuration changes, e.g. the night mode or the density, since
+ * the colors and dimensions may then resolve differently.
+ */
+public class AdherenceDrawables {
+
+    private static final Adherence.AdherenceType[] ADHERENCE_TYPES = Adherence.AdherenceType.values();
+
+    /** The shared state of each drawable, indexed by {@link Adherence.AdherenceType#ordinal()}. */
+    private static final Drawable.ConstantState[] constantStates = new Drawable.ConstantState[ADHERENCE_TYPES.length];
+
+    /** The configuration for which the drawables were built, null if none were built. */
+    private static Configuration configuration;
+
+    private AdherenceDrawables(){
+    }
+
+    /**
+     * Returns the drawable for a particular adherence type.
+     * @param context A context is required to acquire the drawable from the project resources.
+     * @param adherence The adherence type.
+     * @return A drawable sharing its state with all other drawables of the given adherence type.
+     */
+    public static synchronized Drawable get(Context context, Adherence.AdherenceType adherence){
+        Resources resources = context.getResources();
+        if (configuration == null || configuration.diff(resources.getConfiguration()) != 0)
+            invalidate(resources.getConfiguration());
+        Drawable.ConstantState constantState = constantStates[adherence.ordinal()];
+        if (constantState == null) {
+            Drawable drawable = Utils.getDrawableForAdherence(context, adherence);
+            constantState = drawable.getConstantState();
+            if (constantState == null)
+                return drawable; // cannot be shared
+            constantStates[adherence.ordinal()] = constantState;
+        }
+        return constantState.newDrawable(resources);
+    }
+
+    /**
+     * Clears the cache, which is then rebuilt for the given configuration.
+     */
+    private static void invalidate(Configuration newConfiguration){
+        for (int i = 0; i < constantStates.length; i++)
+            constantStates[i] = null;
+        configuration = new Configuration(newConfiguration);
+    }
+}
@@ -0,0 +1,65 @@
+package cs.umass.edu.prepare.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * A thread-safe replacement for a shared {@link SimpleDateFormat}, which is not thread-safe,
+ * e.g. when used both from the UI thread and from the MHL client callback thread. Each thread
+ * lazily creates and then reuses its own {@link SimpleDateFormat}, so that no lock is held and
+ * no format is allocated per call.
+ *
+ * On the server ingestion path, where only the yyyy-MM-dd and H:mm formats are used, prefer
+ * {@link Utils#parseEpochDay(String)} and {@link Utils#parseMinuteOfDay(String)}, which
+ * allocate no {@link Date} or {@link Calendar}.
+ */
+public class DateFormatter {
+
+    private final String pattern;
+
+    private final ThreadLocal<SimpleDateFormat> format;
+
+    /**
+     * Creates a formatter for the given pattern in the default locale.
+     * @param pattern the pattern, see {@link SimpleDateFormat}.
+     */
+    public DateFormatter(final String pattern){
+        this.pattern = pattern;
+        format = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                return new SimpleDateFormat(pattern, Locale.getDefault());
+            }
+        };
+    }
+
+    public String format(Date date){
+        return format.get().format(date);
+    }
+
+    public String format(Calendar calendar){
+        return format(calendar.getTime());
+    }
+
+    /**
+     * Parses a date in this format.
+     * @param text the text to parse.
+     * @return the date.
+     * @throws ParseException if the beginning of the text cannot be parsed.
+     */
+    public Date parse(String text) throws ParseException {
+        return format.get().parse(text);
+    }
+
+    public String toPattern(){
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
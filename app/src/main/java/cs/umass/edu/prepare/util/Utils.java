@@ -10,14 +10,15 @@ import android.os.Build;
 import android.support.v4.content.ContextCompat;
 import android.widget.TimePicker;
 
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 import cs.umass.edu.prepare.data.Adherence;
+import cs.umass.edu.prepare.data.AdherenceStore;
 import cs.umass.edu.prepare.data.DataIO;
 import cs.umass.edu.prepare.constants.Constants;
 import cs.umass.edu.prepare.data.Medication;
@@ -29,7 +30,8 @@ import cs.umass.edu.prepare.R;
 public class Utils {
 
     /**
-     * Returns the drawable for a particular adherence type.
+     * Returns a new drawable for a particular adherence type. Prefer {@link AdherenceDrawables#get(Context, Adherence.AdherenceType)},
+     * which shares the drawable's state rather than building it on every call.
      * @param context A context is required to acquire the drawable from the project resources.
      * @param adherence The adherence type.
      * @return A drawable corresponding to the given adherence type.
@@ -95,6 +97,158 @@ public class Utils {
         return cal;
     }
 
+    /**
+     * Returns the number of days since January 1, 1970 for the given year, month and day.
+     * @param year an integer representing the year.
+     * @param month a 0-index month representing the month.
+     * @param day a 1-index day representing the day of the month.
+     * @return the epoch day, which may be negative for dates before 1970.
+     */
+    public static int getEpochDay(int year, int month, int day) {
+        // see http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+        int m = month + 1;
+        int y = m <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the number of days since January 1, 1970 for the date of the given {@link Calendar}.
+     * Only the year, month and date fields are relevant.
+     * @param date A {@link Calendar} object.
+     * @return the epoch day, which may be negative for dates before 1970.
+     */
+    public static int getEpochDay(Calendar date) {
+        return getEpochDay(date.get(Calendar.YEAR), date.get(Calendar.MONTH), date.get(Calendar.DATE));
+    }
+
+    /**
+     * Parses a date of the form yyyy-MM-dd, as sent by the server, without allocating a
+     * {@link Calendar} or using a {@link java.text.SimpleDateFormat}.
+     * @param date the date, e.g. 2017-08-15.
+     * @return the epoch day, see {@link #getEpochDay(int, int, int)}.
+     * @throws ParseException if the date is not of the form yyyy-MM-dd.
+     */
+    public static int parseEpochDay(String date) throws ParseException {
+        int firstDash = date.indexOf('-');
+        int secondDash = date.indexOf('-', firstDash + 1);
+        if (firstDash <= 0 || secondDash < 0)
+            throw new ParseException("Unparseable date: " + date, 0);
+        int year = parseInt(date, 0, firstDash);
+        int month = parseInt(date, firstDash + 1, secondDash);
+        int day = parseInt(date, secondDash + 1, date.length());
+        if (month < 1 || month > 12 || day < 1 || day > 31)
+            throw new ParseException("Unparseable date: " + date, firstDash + 1);
+        return getEpochDay(year, month - 1, day);
+    }
+
+    /**
+     * Parses a time of the form H:mm, as sent by the server, without allocating a
+     * {@link Calendar} or using a {@link java.text.SimpleDateFormat}.
+     * @param time the time, e.g. 8:05 or 20:30.
+     * @return the minute of day, in [0, 1440).
+     * @throws ParseException if the time is not of the form H:mm.
+     */
+    public static int parseMinuteOfDay(String time) throws ParseException {
+        int colon = time.indexOf(':');
+        if (colon <= 0)
+            throw new ParseException("Unparseable time: " + time, 0);
+        int hour = parseInt(time, 0, colon);
+        int minute = parseInt(time, colon + 1, time.length());
+        if (hour > 23 || minute > 59)
+            throw new ParseException("Unparseable time: " + time, 0);
+        return 60 * hour + minute;
+    }
+
+    /**
+     * Formats a date in the form yyyy-MM-dd, the inverse of {@link #parseEpochDay(String)},
+     * without allocating a {@link Calendar} or using a {@link java.text.SimpleDateFormat}.
+     * @param epochDay the epoch day, see {@link #getEpochDay(int, int, int)}.
+     * @return the date, e.g. 2017-08-15.
+     */
+    public static String formatEpochDay(int epochDay) {
+        int civilDate = toCivilDate(epochDay);
+        int year = civilDate >> 9;
+        int month = (civilDate >> 5 & 0xF) + 1; // 1-index
+        int day = civilDate & 0x1F;
+
+        StringBuilder date = new StringBuilder(10);
+        if (year < 1000)
+            date.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        date.append(year).append('-');
+        if (month < 10)
+            date.append('0');
+        date.append(month).append('-');
+        if (day < 10)
+            date.append('0');
+        return date.append(day).toString();
+    }
+
+    /**
+     * Returns the given time of day on January 1, 1970, as a {@link java.text.SimpleDateFormat}
+     * parsing only a time would, e.g. for the medication schedule.
+     * @param minuteOfDay the minute of day, see {@link #parseMinuteOfDay(String)}.
+     * @return a {@link Calendar} object.
+     */
+    public static Calendar getTimeOfDay(int minuteOfDay) {
+        Calendar time = Calendar.getInstance();
+        time.clear();
+        time.set(Calendar.HOUR_OF_DAY, minuteOfDay / 60);
+        time.set(Calendar.MINUTE, minuteOfDay % 60);
+        return time;
+    }
+
+    /**
+     * Parses the non-negative decimal integer in the given range of a string.
+     * @throws ParseException if the range is empty or contains a character other than a digit.
+     */
+    private static int parseInt(String s, int start, int end) throws ParseException {
+        if (start >= end || end - start > 9) // at most 9 digits cannot overflow
+            throw new ParseException("Expected a number: " + s, start);
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                throw new ParseException("Expected a digit: " + s, i);
+            value = 10 * value + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns a date key for the given number of days since January 1, 1970.
+     * @param epochDay the epoch day, as returned by {@link #getEpochDay(int, int, int)}.
+     * @return a {@link Calendar} object, as returned by {@link #getDateKey(int, int, int)}.
+     */
+    public static Calendar getDateKey(int epochDay) {
+        int civilDate = toCivilDate(epochDay);
+        return getDateKey(civilDate >> 9, civilDate >> 5 & 0xF, civilDate & 0x1F);
+    }
+
+    /**
+     * Converts a number of days since January 1, 1970 to a date in the proleptic Gregorian
+     * calendar, without allocating a {@link Calendar}.
+     * @param epochDay the epoch day, see {@link #getEpochDay(int, int, int)}.
+     * @return the date, packed as the year in bits 9 and up, the 0-index month in bits 5 to 8
+     * and the day of the month in bits 0 to 4.
+     */
+    private static int toCivilDate(int epochDay) {
+        // see http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 2 : mp - 10; // 0-index
+        int year = yearOfEra + era * 400 + (month <= Calendar.FEBRUARY ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
     /**
      * Acquires the time from the given unmodified time picker, i.e. its minute interval is 1.
      * @param clock the time picker.
@@ -120,29 +274,29 @@ public class Utils {
      */
     public static void setDummyAdherenceData(Context context){
         ArrayList<Medication> medications = new ArrayList<>();
-        Map<Calendar, Map<Medication, Adherence[]>> adherenceData = new TreeMap<>();
+        AdherenceStore adherenceData = new AdherenceStore();
         Map<Medication, Integer> dosageMapping = new HashMap<>(); // in mg
         Map<Medication, Calendar[]> dailySchedule = new HashMap<>();
 
         medications.add(new Medication("Ritonavir"));
         Bitmap ritonavirImage = BitmapFactory.decodeResource(context.getResources(), R.drawable.retonavir);
-        medications.get(0).setImage(ritonavirImage);
-        medications.get(0).setDefaultImage(ritonavirImage);
+        medications.get(0).setImage(context, ritonavirImage);
+        medications.get(0).setDefaultImage(context, ritonavirImage);
 
         medications.add(new Medication("Prezista"));
         Bitmap prezistaImage = BitmapFactory.decodeResource(context.getResources(), R.drawable.prezista);
-        medications.get(1).setImage(prezistaImage);
-        medications.get(1).setDefaultImage(prezistaImage);
+        medications.get(1).setImage(context, prezistaImage);
+        medications.get(1).setDefaultImage(context, prezistaImage);
 
         medications.add(new Medication("Norvir"));
         Bitmap norvirImage = BitmapFactory.decodeResource(context.getResources(), R.drawable.norvir);
-        medications.get(2).setImage(norvirImage);
-        medications.get(2).setDefaultImage(norvirImage);
+        medications.get(2).setImage(context, norvirImage);
+        medications.get(2).setDefaultImage(context, norvirImage);
 
         medications.add(new Medication("Descovy"));
         Bitmap descovyImage = BitmapFactory.decodeResource(context.getResources(), R.drawable.descovy);
-        medications.get(3).setImage(descovyImage);
-        medications.get(3).setDefaultImage(descovyImage);
+        medications.get(3).setImage(context, descovyImage);
+        medications.get(3).setDefaultImage(context, descovyImage);
 
         dosageMapping.put(medications.get(0), 100);
         dosageMapping.put(medications.get(1), 200);
@@ -189,20 +343,17 @@ public class Utils {
         endDate.set(Calendar.MONTH, Calendar.AUGUST);
         endDate.set(Calendar.DATE, 15);
         while (startDate.before(endDate)){
-            Map<Medication, Adherence[]> singleDayAdherenceData = new HashMap<>();
+            int epochDay = getEpochDay(startDate);
             for (Medication medication : medications){
-                Adherence[] medicationAdherence = new Adherence[2];
-                for (int j = 0; j < medicationAdherence.length; j++){
+                for (int j = 0; j < AdherenceStore.SLOTS_PER_DAY; j++){
                     if (dailySchedule.get(medication)[j] == null)
-                        medicationAdherence[j] = new Adherence(Adherence.AdherenceType.NONE, null);
+                        adherenceData.setAdherence(epochDay, medication, j, new Adherence(Adherence.AdherenceType.NONE, null));
                     else {
                         Calendar timeTaken = (Calendar) dailySchedule.get(medication)[j].clone();
-                        medicationAdherence[j] = new Adherence(Adherence.AdherenceType.TAKEN, timeTaken);
+                        adherenceData.setAdherence(epochDay, medication, j, new Adherence(Adherence.AdherenceType.TAKEN, timeTaken));
                     }
                 }
-                singleDayAdherenceData.put(medication, medicationAdherence);
             }
-            adherenceData.put(Utils.getDateKey(startDate), singleDayAdherenceData);
             startDate.add(Calendar.DATE, 1);
         }
 
@@ -16,11 +16,12 @@
 
 package cs.umass.edu.prepare.view.activities;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 import android.animation.ArgbEvaluator;
@@ -37,7 +38,6 @@ import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Bundle;
-import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.LocalBroadcastManager;
@@ -60,15 +60,20 @@ import android.widget.TimePicker;
 import android.widget.Toast;
 
 import cs.umass.edu.prepare.data.Adherence;
+import cs.umass.edu.prepare.data.AdherenceStore;
+import cs.umass.edu.prepare.data.DataChangeEvent;
 import cs.umass.edu.prepare.data.DataIO;
 import cs.umass.edu.prepare.main.CheckForUpdatesTask;
 import cs.umass.edu.prepare.services.DataService;
 import cs.umass.edu.prepare.services.WearableService;
-import cs.umass.edu.prepare.view.custom.CalendarAdapter;
+import cs.umass.edu.prepare.view.custom.MonthAdherenceCache;
+import cs.umass.edu.prepare.view.custom.MonthAdherenceView;
 import cs.umass.edu.prepare.constants.Constants;
 import cs.umass.edu.prepare.view.gestures.CustomMotionEventListener;
 import cs.umass.edu.prepare.data.Medication;
 import cs.umass.edu.prepare.R;
+import cs.umass.edu.prepare.util.AdherenceDrawables;
+import cs.umass.edu.prepare.util.DateFormatter;
 import cs.umass.edu.prepare.util.Utils;
 
 public class CalendarActivity extends AppCompatActivity {
@@ -87,19 +92,22 @@ public class CalendarActivity extends AppCompatActivity {
 	/** The date the user selected, initially the current date. **/
 	private final Calendar selectedDate;
 
-	/** The adapter for displaying the custom activity_calendar. **/
-	private CalendarAdapter adapter;
+	/** The view displaying the custom activity_calendar. **/
+	private MonthAdherenceView calendarView;
 
-	/** The handler is used to update the activity_calendar view asynchronously. **/
-	private Handler handler;
+	/** Builds the months adjacent to the displayed month in the background. **/
+	private final ExecutorService calendarExecutor = Executors.newSingleThreadExecutor();
+
+	/** Holds the displayed month and the months on either side. **/
+	private final MonthAdherenceCache monthAdherenceCache = new MonthAdherenceCache(calendarExecutor, this::runOnUiThread);
 
 
 
 	/** The list of medications. **/
 	private ArrayList<Medication> medications;
 
-	/** The entire adherence data. Date is stored in a tree map because dates are naturally ordered. **/
-	private Map<Calendar, Map<Medication, Adherence[]>> adherenceData;
+	/** The entire adherence data, keyed by epoch day. **/
+	private AdherenceStore adherenceData;
 
 	/** Maps a medication to a dosage **/
 	private Map<Medication, Integer> dosageMapping; // in mg
@@ -117,13 +125,16 @@ public class CalendarActivity extends AppCompatActivity {
 	private View detailsView;
 
 	/** Used for formatting time of day. **/
-	private SimpleDateFormat timeFormat = Constants.DATE_FORMAT.AM_PM;
+	private DateFormatter timeFormat = Constants.DATE_FORMAT.AM_PM;
 
 	/** Used for formatting dates in mm/dd format. **/
-	private final SimpleDateFormat dayFormat = Constants.DATE_FORMAT.MONTH_DAY;
+	private final DateFormatter dayFormat = Constants.DATE_FORMAT.MONTH_DAY;
 
 	private DataIO preferences;
 
+	/** Reloads the data when it changes, removed when the activity is destroyed. **/
+	private final DataIO.OnDataChangedListener onDataChangedListener = event -> runOnUiThread(() -> onDataChanged(event));
+
 	private CustomMotionEventListener.OnSwipeListener onDetailsSwiped = new CustomMotionEventListener.OnSwipeListener() {
 		@Override
 		public void onSwipe(CustomMotionEventListener.OnSwipeListener.Direction direction) {
@@ -154,6 +165,56 @@ public class CalendarActivity extends AppCompatActivity {
 		dailySchedule = preferences.getSchedule(this);
 		adherenceData = preferences.getAdherenceData(this);
 		addressMapping = preferences.getAddressMapping(this);
+		monthAdherenceCache.setData(adherenceData, medications);
+	}
+
+	/**
+	 * Reloads only the data sets which changed, and refreshes the view only if a change is visible.
+	 * @param event describes the change.
+	 */
+	private void onDataChanged(DataChangeEvent event){
+		if (calendarExecutor.isShutdown())
+			return; // posted before the listener was removed in onDestroy
+		boolean refresh = false;
+		for (DataChangeEvent.DataSet dataSet : event.getDataSets()) {
+			switch (dataSet) {
+				case MEDICATIONS:
+					medications = preferences.getMedications(this);
+					monthAdherenceCache.setData(adherenceData, medications);
+					for (DetailsHolder holder : detailsHolders)
+						holder.imageMedication = null; // the images may have changed
+					refresh = true;
+					break;
+				case DOSAGE_MAPPING:
+					dosageMapping = preferences.getDosageMapping(this);
+					refresh = true;
+					break;
+				case SCHEDULE:
+					dailySchedule = preferences.getSchedule(this);
+					refresh = true;
+					break;
+				case ADHERENCE_DATA:
+					AdherenceStore previousAdherenceData = adherenceData;
+					adherenceData = preferences.getAdherenceData(this); // may have been replaced
+					if (adherenceData != previousAdherenceData) {
+						monthAdherenceCache.setData(adherenceData, medications);
+					} else {
+						monthAdherenceCache.invalidate(event.getFromEpochDay(), event.getToEpochDay());
+					}
+					int selectedDay = Utils.getEpochDay(selectedDate);
+					if (calendarView.isDisplayed(event.getFromEpochDay(), event.getToEpochDay())
+							|| (displayDetailsView && event.affects(selectedDay, selectedDay)))
+						refresh = true;
+					break;
+				case ADDRESS_MAPPING:
+					addressMapping = preferences.getAddressMapping(this);
+					break; // not displayed
+				case REMINDERS:
+					break; // not displayed
+			}
+		}
+		if (refresh)
+			refresh();
 	}
 
 	@Override
@@ -205,7 +266,7 @@ public class CalendarActivity extends AppCompatActivity {
 		}
 		if (preferences == null){
 			preferences = DataIO.getInstance(this);
-			preferences.addOnDataChangedListener(() -> CalendarActivity.this.runOnUiThread(CalendarActivity.this::refresh));
+			preferences.addOnDataChangedListener(onDataChangedListener);
 		}
 		loadData();
 
@@ -229,12 +290,11 @@ public class CalendarActivity extends AppCompatActivity {
 
 		getSupportActionBar().setCustomView(v);
 
-		adapter = new CalendarAdapter(this, month, selectedDate);
-		GridView gridview = (GridView) findViewById(R.id.gridview);
-		gridview.setAdapter(adapter);
-
-		handler = new Handler();
-		handler.post(calendarUpdater);
+		month.set(Calendar.DAY_OF_MONTH, 1);
+		calendarView = (MonthAdherenceView) findViewById(R.id.calendar);
+		calendarView.setMonthAdherenceCache(monthAdherenceCache);
+		calendarView.setSelectedDate(selectedDate);
+		refreshCalendar();
 
 		GridView headers = (GridView) findViewById(R.id.gvHeaders);
 
@@ -257,22 +317,19 @@ public class CalendarActivity extends AppCompatActivity {
 
 		detailsView = findViewById(R.id.details);
 
-		gridview.setOnItemClickListener((parent, v12, position, id) -> {
-            TextView date = (TextView) v12.findViewById(R.id.date);
-            if(date != null && !date.getText().equals("")) {
-                if (date.getText().toString().equals(String.valueOf(selectedDate.get(Calendar.DATE)))){
-                    displayDetailsView = !displayDetailsView;
-                } else {
-                    displayDetailsView = true;
-                }
-                selectedDate.set(Calendar.MONTH, month.get(Calendar.MONTH));
-                selectedDate.set(Calendar.YEAR, month.get(Calendar.YEAR));
-                selectedDate.set(Calendar.DATE, Integer.valueOf(date.getText().toString()));
-                refresh();
+		calendarView.setOnDateClickListener(dayOfMonth -> {
+            if (dayOfMonth == selectedDate.get(Calendar.DATE)){
+                displayDetailsView = !displayDetailsView;
+            } else {
+                displayDetailsView = true;
             }
+            selectedDate.set(Calendar.MONTH, month.get(Calendar.MONTH));
+            selectedDate.set(Calendar.YEAR, month.get(Calendar.YEAR));
+            selectedDate.set(Calendar.DATE, dayOfMonth);
+            refresh();
         });
 
-		motionEventListener.setOnSwipeListener(gridview, direction -> {
+		motionEventListener.setOnSwipeListener(calendarView, direction -> {
             if (direction== CustomMotionEventListener.OnSwipeListener.Direction.LEFT){
                 nextMonth();
             } else if (direction == CustomMotionEventListener.OnSwipeListener.Direction.RIGHT) {
@@ -299,6 +356,14 @@ public class CalendarActivity extends AppCompatActivity {
 		startService(dataServiceIntent);
 	}
 
+	@Override
+	protected void onDestroy() {
+		if (preferences != null)
+			preferences.removeOnDataChangedListener(onDataChangedListener);
+		calendarExecutor.shutdown();
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onResume() {
 		refresh();
@@ -345,14 +410,14 @@ public class CalendarActivity extends AppCompatActivity {
 	private void refresh(){
 		// if the details view below the calendar is visible, then the calendar should NOT show its adherence details in each cell
 		if (displayDetailsView) {
-			adapter.setDisplayType(CalendarAdapter.DisplayType.BASIC);
+			calendarView.setDisplayType(MonthAdherenceView.DisplayType.BASIC);
 		} else {
-			adapter.setDisplayType(CalendarAdapter.DisplayType.DETAILED);
+			calendarView.setDisplayType(MonthAdherenceView.DisplayType.DETAILED);
 		}
-		adapter.setSelectedDate(selectedDate);
+		calendarView.setSelectedDate(selectedDate);
 		refreshCalendar();
 		if (displayDetailsView)
-			updateDetails(Utils.getDateKey(selectedDate));
+			updateDetails(Utils.getEpochDay(selectedDate));
 		TextView txtDate = (TextView) findViewById(R.id.txtDate);
 		if (displayDetailsView){
 			txtDate.setVisibility(View.VISIBLE);
@@ -421,10 +486,10 @@ public class CalendarActivity extends AppCompatActivity {
 	 * Allows the user to edit adherence.
 	 * TODO: This is only available for easy debugging and data manipulation.
 	 * @param medication the medication for which the adherence is being edited.
-	 * @param dateKey the date for which the adherence is being edited.
+	 * @param epochDay the date for which the adherence is being edited.
 	 * @param index the index into the adherence array, that is either AM or PM.
 	 */
-	private void editAdherence(final Medication medication, final Calendar dateKey, final int index){
+	private void editAdherence(final Medication medication, final int epochDay, final int index){
 		AlertDialog.Builder b = new AlertDialog.Builder(this);
 		b.setTitle("Select Adherence:");
 		final String[] adherenceChoices = new String[Adherence.AdherenceType.values().length];
@@ -433,22 +498,23 @@ public class CalendarActivity extends AppCompatActivity {
 		}
 		b.setItems(adherenceChoices, (dialog, which) -> {
             dialog.dismiss();
-            Map<Medication, Adherence[]> selectedAdherence = adherenceData.get(dateKey);
-            Adherence[] dailyAdherence = selectedAdherence.get(medication);
-            dailyAdherence[index].setAdherenceType(Adherence.AdherenceType.values()[which]);
+            Adherence adherence = adherenceData.getAdherence(epochDay, medication, index);
+            if (adherence == null)
+                adherence = new Adherence(Adherence.AdherenceType.values()[which], null);
+            adherence.setAdherenceType(Adherence.AdherenceType.values()[which]);
             if (Adherence.AdherenceType.values()[which] == Adherence.AdherenceType.TAKEN){
-                dailyAdherence[index].setTimeTaken(dailySchedule.get(medication)[index]);
+                adherence.setTimeTaken(dailySchedule.get(medication)[index]);
             } else if (Adherence.AdherenceType.values()[which] == Adherence.AdherenceType.TAKEN_EARLY_OR_LATE){
                 Calendar timeToTake = (Calendar) dailySchedule.get(medication)[index].clone();
                 // random time if early or late:
                 int sign = (Math.random()>0.5 ? 1 : -1);
                 timeToTake.add(Calendar.HOUR, (int)(sign * (1 + 3*Math.random())));
                 timeToTake.add(Calendar.MINUTE, (int)(sign * (15 + 45*Math.random())));
-                dailyAdherence[index].setTimeTaken(timeToTake);
+                adherence.setTimeTaken(timeToTake);
             }
-            refresh();
             DataIO preferences = DataIO.getInstance(CalendarActivity.this);
-            preferences.setAdherenceData(this, adherenceData);
+            preferences.setAdherence(this, epochDay, medication, index, adherence);
+            refresh();
         });
 		b.show();
 	}
@@ -458,7 +524,7 @@ public class CalendarActivity extends AppCompatActivity {
 	 * @param medication the medication for which the adherence is being modified.
 	 * @param index the index of the adherence being modified, i.e. AM or PM.
 	 */
-	private void setTimeTaken(final Medication medication, final Calendar dateKey, final int index){
+	private void setTimeTaken(final Medication medication, final int epochDay, final int index){
 		final Dialog dialog = new Dialog(this);
 		dialog.setContentView(R.layout.dialog_set_time);
 
@@ -470,9 +536,10 @@ public class CalendarActivity extends AppCompatActivity {
 		Button saveButton = (Button) dialog.findViewById(R.id.btn_time_save);
 		saveButton.setOnClickListener(v -> {
             Calendar time = Utils.getTimeNoInterval(timePicker); // TODO: Store times taken
-            Map<Medication, Adherence[]> dailyAdherence = adherenceData.get(dateKey);
-            Adherence[] adherence = dailyAdherence.get(medication);
-            adherence[index].setTimeTaken(time);
+            Adherence adherence = adherenceData.getAdherence(epochDay, medication, index);
+            if (adherence == null)
+                adherence = new Adherence(Adherence.AdherenceType.TAKEN, null);
+            adherence.setTimeTaken(time);
 
             Calendar[] schedule = dailySchedule.get(medication);
             Calendar timeToTake = (Calendar) time.clone();
@@ -484,64 +551,97 @@ public class CalendarActivity extends AppCompatActivity {
             lowerBound.add(Calendar.HOUR_OF_DAY, -1);
 
             if (time.after(upperBound) || time.before(lowerBound)) {
-                adherence[index].setAdherenceType(Adherence.AdherenceType.TAKEN_EARLY_OR_LATE);
+                adherence.setAdherenceType(Adherence.AdherenceType.TAKEN_EARLY_OR_LATE);
             } else {
-                adherence[index].setAdherenceType(Adherence.AdherenceType.TAKEN);
+                adherence.setAdherenceType(Adherence.AdherenceType.TAKEN);
             }
 
             dialog.dismiss();
-            refresh();
 
             DataIO preferences = DataIO.getInstance(CalendarActivity.this);
-            preferences.setAdherenceData(this, adherenceData);
+            preferences.setAdherence(this, epochDay, medication, index, adherence);
+            refresh();
         });
 
 		dialog.show();
 	}
 
 	/**
-	 * Populates the details view with adherence data for a particular date.
-	 * @param dateKey corresponds to the selected date. Note that the date key must have zeroed
-	 *                out all fields excluding month, year and date.
-	 * @param insertPoint the parent to which the adherence views are to be added.
+	 * Holds the views of a row in the details view, which displays the adherence to one medication
+	 * on the selected date. Rows are reused when the selected date changes, so that only the data
+	 * is bound again.
 	 */
-	private void insertDetailsForDate (final Calendar dateKey, ViewGroup insertPoint) {
-		final Map<Medication, Adherence[]> adherenceMap = adherenceData.get(dateKey);
-		for (final Medication medication : medications) {
-			View details = View.inflate(this, R.layout.view_adherence_details_full, null);
-			LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(
-					LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT);
-
-			View[] adherenceViews = new View[2];
+	private class DetailsHolder {
+		final View details;
+		final View[] adherenceViews = new View[2];
+		final TextView[] timeTakenViews = new TextView[2];
+		final TextView[] medicationImgViews = new TextView[2];
+
+		/** The medication and date bound to the row, read by the click listeners. **/
+		Medication medication;
+		int epochDay;
+		final Adherence.AdherenceType[] adherenceTypes = new Adherence.AdherenceType[2];
+
+		/** The medication whose image is displayed, null if the image must be set again. **/
+		Medication imageMedication;
+
+		DetailsHolder(ViewGroup insertPoint){
+			details = View.inflate(CalendarActivity.this, R.layout.view_adherence_details_full, null);
 			int[] viewIDs = new int[]{R.id.adherence_details1, R.id.adherence_details2};
 			int[] timeTakenIDs = new int[]{R.id.txtTimeTaken1, R.id.txtTimeTaken2};
 			int[] medicationImgIDs = new int[]{R.id.imgMedication1, R.id.imgMedication2};
-			final Adherence[] adherence = adherenceMap.get(medication);
-			int dosage = dosageMapping.get(medication);
-			Calendar[] schedule = dailySchedule.get(medication);
-
 			for (int i = 0; i < viewIDs.length; i++){
 				final int index = i;
 				adherenceViews[index] = details.findViewById(viewIDs[index]);
+				timeTakenViews[index] = (TextView) details.findViewById(timeTakenIDs[index]);
+				medicationImgViews[index] = (TextView) details.findViewById(medicationImgIDs[index]);
 				// TODO : Swiping on details doesn't work as expected (only works for adherence view):
 //				motionEventListener.setOnSwipeListener(adherenceViews[index], onDetailsSwiped);
 				adherenceViews[index].setOnLongClickListener(view -> {
-                    editAdherence(medication, dateKey, index);
-                    return false;
-                });
+					editAdherence(medication, epochDay, index);
+					return false;
+				});
 				adherenceViews[index].setOnClickListener(view -> {
-                    if (adherence[index].getAdherenceType() == Adherence.AdherenceType.TAKEN_CLARIFY_TIME) {
-                        setTimeTaken(medication, dateKey, index);
-                    }
-                });
-				adherenceViews[index].setBackground(Utils.getDrawableForAdherence(this, adherence[index].getAdherenceType()));
-				TextView timeTaken = (TextView) details.findViewById(timeTakenIDs[index]);
-				TextView imgMedication = (TextView) details.findViewById(medicationImgIDs[index]);
-				BitmapDrawable medicationDrawable = new BitmapDrawable(getResources(), medication.getImage());
-				imgMedication.setCompoundDrawablesWithIntrinsicBounds(null, medicationDrawable, null, null);
-				imgMedication.setText(String.format(Locale.getDefault(), "%d mg", dosage));
+					if (adherenceTypes[index] == Adherence.AdherenceType.TAKEN_CLARIFY_TIME) {
+						setTimeTaken(medication, epochDay, index);
+					}
+				});
+			}
+			// set margins and add to parent
+			LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(
+					LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT);
+			layoutParams.setMargins(0, 15, 0, 15);
+			insertPoint.addView(details, layoutParams);
+		}
+
+		/**
+		 * Displays the adherence to a medication on a particular date.
+		 */
+		void bind(final Medication medication, final int epochDay){
+			this.medication = medication;
+			this.epochDay = epochDay;
+			int dosage = dosageMapping.get(medication);
+			Calendar[] schedule = dailySchedule.get(medication);
+			if (!medication.equals(imageMedication)) {
+				for (TextView imgMedication : medicationImgViews) {
+					BitmapDrawable medicationDrawable = new BitmapDrawable(getResources(), medication.getImage(CalendarActivity.this));
+					imgMedication.setCompoundDrawablesWithIntrinsicBounds(null, medicationDrawable, null, null);
+				}
+				imageMedication = medication;
+			}
+
+			for (int index = 0; index < adherenceViews.length; index++){
+				Adherence adherence = adherenceData.getAdherence(epochDay, medication, index);
+				adherenceTypes[index] = adherence == null ? null : adherence.getAdherenceType();
+				if (adherence == null) { // no adherence for this medication on this date
+					adherenceViews[index].setVisibility(View.INVISIBLE);
+					continue;
+				}
+				adherenceViews[index].setBackground(AdherenceDrawables.get(CalendarActivity.this, adherence.getAdherenceType()));
+				TextView timeTaken = timeTakenViews[index];
+				medicationImgViews[index].setText(String.format(Locale.getDefault(), "%d mg", dosage));
 				adherenceViews[index].setVisibility(View.VISIBLE);
-				switch (adherence[index].getAdherenceType()) {
+				switch (adherence.getAdherenceType()) {
 					case NONE:
 						adherenceViews[index].setVisibility(View.INVISIBLE);
 						break;
@@ -555,63 +655,74 @@ public class CalendarActivity extends AppCompatActivity {
 						timeTaken.setText(timeFormat.format(schedule[index].getTime()));
 						break;
 					default: // taken on-time or taken late/early
-						Calendar time = adherence[index].getTimeTaken();
-						if (time != null)
-							timeTaken.setText(timeFormat.format(time.getTime()));
+						Calendar time = adherence.getTimeTaken();
+						timeTaken.setText(time == null ? "" : timeFormat.format(time.getTime()));
 						break;
 				}
 			}
-			// set margins and add to parent
-			layoutParams.setMargins(0, 15, 0, 15);
-			insertPoint.addView(details, layoutParams);
 		}
 	}
 
+	/** The rows of the details view, one per medication, reused for each date. **/
+	private final ArrayList<DetailsHolder> detailsHolders = new ArrayList<>();
+
+	/**
+	 * Populates the details view with adherence data for a particular date, reusing the rows
+	 * displaying the previous date.
+	 * @param epochDay corresponds to the selected date, see {@link Utils#getEpochDay(Calendar)}.
+	 * @param insertPoint the parent to which the adherence views are to be added.
+	 */
+	private void insertDetailsForDate (final int epochDay, ViewGroup insertPoint) {
+		for (int i = 0; i < medications.size(); i++) {
+			if (i == detailsHolders.size())
+				detailsHolders.add(new DetailsHolder(insertPoint));
+			DetailsHolder holder = detailsHolders.get(i);
+			holder.details.setVisibility(View.VISIBLE);
+			holder.bind(medications.get(i), epochDay);
+		}
+		hideDetails(medications.size());
+	}
+
+	/**
+	 * Hides the rows of the details view from the given index on.
+	 * @param from the index of the first row to hide.
+	 */
+	private void hideDetails(int from){
+		for (int i = from; i < detailsHolders.size(); i++)
+			detailsHolders.get(i).details.setVisibility(View.GONE);
+	}
+
 	/**
 	 * Updates the details view for a particular date.
-	 * @param dateKey corresponds to the selected date. Note that the date key must have zeroed
-	 *                out all fields excluding month, year and date.
+	 * @param epochDay corresponds to the selected date, see {@link Utils#getEpochDay(Calendar)}.
 	 */
-	private void updateDetails(Calendar dateKey){
+	private void updateDetails(int epochDay){
 		TextView txtDate = (TextView) findViewById(R.id.txtDate);
 		txtDate.setText(dayFormat.format(selectedDate.getTime()) + "\n" + selectedDate.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.SHORT, Locale.getDefault()));
 
 		ViewGroup insertPoint = (ViewGroup) findViewById(R.id.details);
-		insertPoint.removeAllViews();
 
 		if (adherenceData == null) {
 			Log.w(TAG, "Warning : No adherence data found.");
+			hideDetails(0);
+		} else if (adherenceData.contains(epochDay)) {
+			insertDetailsForDate(epochDay, insertPoint);
 		} else {
-			if (adherenceData.containsKey(dateKey))
-				insertDetailsForDate(dateKey, insertPoint);
+			hideDetails(0);
 		}
 	}
 
 	/**
-	 * Refreshes the view asynchronously and displays the selected month and year.
+	 * Refreshes the calendar view and displays the selected month and year.
 	 */
 	private void refreshCalendar() {
 		TextView title  = (TextView) findViewById(R.id.title);
 
-		adapter.refresh();
-		adapter.notifyDataSetChanged();
-		handler.post(calendarUpdater);
+		calendarView.setMonth(month.get(Calendar.YEAR), month.get(Calendar.MONTH));
 
 		title.setText(Constants.DATE_FORMAT.MMM_YYYY.format(month.getTime()));
 	}
 
-	/**
-	 * Asynchronously updates the data displayed in the activity_calendar view.
-	 */
-	private final Runnable calendarUpdater = new Runnable() {
-		@Override
-		public void run() {
-			adapter.setAdherenceData(adherenceData);
-			adapter.setMedicationInfo(medications);
-			adapter.notifyDataSetChanged();
-		}
-	};
-
 	/**
 	 * Shows a removable status message at the bottom of the application.
 	 * @param message the status message shown
@@ -668,8 +779,8 @@ public class CalendarActivity extends AppCompatActivity {
 						case Constants.MESSAGES.SERVER_DISCONNECTED:
 							break;
 						case Constants.MESSAGES.PILL_INTAKE_GESTURE_DETECTED:
-//							Medication medication = (Medication) intent.getSerializableExtra(Constants.KEY.MEDICATION);
-//							Calendar timeTaken = (Calendar) intent.getSerializableExtra(Constants.KEY.TIME_TAKEN);
+//							MedicationRef medication = intent.getParcelableExtra(Constants.KEY.MEDICATION);
+//							long timeTaken = intent.getLongExtra(Constants.KEY.TIME_TAKEN, -1);
 //							// TODO
 							break;
 					}
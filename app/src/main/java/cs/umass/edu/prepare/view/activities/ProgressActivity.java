@@ -25,19 +25,21 @@ import com.androidplot.xy.XYSeries;
 import java.text.FieldPosition;
 import java.text.Format;
 import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import cs.umass.edu.prepare.data.Adherence;
+import cs.umass.edu.prepare.data.AdherenceStore;
 import cs.umass.edu.prepare.data.DataIO;
 import cs.umass.edu.prepare.constants.Constants;
 import cs.umass.edu.prepare.data.Medication;
 import cs.umass.edu.prepare.view.custom.MedicationCheckboxAdapter;
 import cs.umass.edu.prepare.R;
+import cs.umass.edu.prepare.util.DateFormatter;
 import cs.umass.edu.prepare.util.Utils;
 
 /**
@@ -51,8 +53,8 @@ public class ProgressActivity extends BaseActivity {
     /** The number of data points (months or weeks) to display. **/
     private final int numberOfDataPoints = 6;
 
-    /** The adherence data, i.e. a mapping from dates to a mapping from medication to adherence. **/
-    private Map<Calendar, Map<Medication, Adherence[]>> adherenceData;
+    /** The adherence data, keyed by epoch day. **/
+    private AdherenceStore adherenceData;
 
     /** The list of medications **/
     private ArrayList<Medication> medications;
@@ -60,9 +62,9 @@ public class ProgressActivity extends BaseActivity {
     /** A mapping from medications to boolean flags, indicating whether that medication is selected for display. **/
     private Map<Medication, Boolean> medicationCheckedMapping;
 
-    private final SimpleDateFormat monthFormat = Constants.DATE_FORMAT.MMM_YY;
+    private final DateFormatter monthFormat = Constants.DATE_FORMAT.MMM_YY;
 
-    private final SimpleDateFormat weekFormat = Constants.DATE_FORMAT.MONTH_DAY;
+    private final DateFormatter weekFormat = Constants.DATE_FORMAT.MONTH_DAY;
 
     /** Indicates whether aggregate data is displayed by month (true) or by week (false). */
     private boolean byMonth = true;
@@ -178,6 +180,7 @@ public class ProgressActivity extends BaseActivity {
                 ContextCompat.getColor(this, R.color.color_dose_late),
                 ContextCompat.getColor(this, R.color.color_dose_missed)};
         int[][] adherence = new int[labels.length][numberOfDataPoints];
+        int[] counts = new int[Adherence.AdherenceType.values().length];
 
         Calendar date = Calendar.getInstance();
         if (byMonth)
@@ -194,44 +197,23 @@ public class ProgressActivity extends BaseActivity {
                 date.add(Calendar.WEEK_OF_YEAR, 1);
                 date.set(Calendar.DAY_OF_WEEK, date.getFirstDayOfWeek());
             }
-            int countTaken = 0;
-            int countLate = 0;
-            int countMissed = 0;
             int numberOfDays;
             if (byMonth)
                 numberOfDays = date.getActualMaximum(Calendar.DAY_OF_MONTH);
             else
                 numberOfDays = 7;
-            for (int day = 0; day < numberOfDays; day++){
-                Map<Medication, Adherence[]> dailyAdherence = adherenceData.get(Utils.getDateKey(date));
-                if (day < numberOfDays-1)
-                    date.add(Calendar.DATE, 1);
-                if (dailyAdherence != null) {
-                    for (Medication medication : medications) {
-                        if (medicationCheckedMapping.get(medication)) {
-                            Adherence[] medicationAdherence = dailyAdherence.get(medication);
-                            for (Adherence aMedicationAdherence : medicationAdherence) {
-                                switch (aMedicationAdherence.getAdherenceType()) {
-                                    case TAKEN:
-                                        countTaken++;
-                                        break;
-                                    case MISSED:
-                                        countMissed++;
-                                        break;
-                                    case TAKEN_EARLY_OR_LATE:
-                                        countLate++;
-                                        break;
-                                    case TAKEN_CLARIFY_TIME:
-                                        countTaken++; // TODO : Don't know if late or on-time
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            }
-                        }
-                    }
+            int firstDay = Utils.getEpochDay(date);
+            Arrays.fill(counts, 0);
+            if (adherenceData != null) {
+                for (Medication medication : medications) {
+                    if (medicationCheckedMapping.get(medication))
+                        adherenceData.countAdherence(firstDay, firstDay + numberOfDays, medication, counts);
                 }
             }
+            int countTaken = counts[Adherence.AdherenceType.TAKEN.ordinal()]
+                    + counts[Adherence.AdherenceType.TAKEN_CLARIFY_TIME.ordinal()]; // TODO : Don't know if late or on-time
+            int countLate = counts[Adherence.AdherenceType.TAKEN_EARLY_OR_LATE.ordinal()];
+            int countMissed = counts[Adherence.AdherenceType.MISSED.ordinal()];
             int total = countTaken + countMissed + countLate;
             adherence[0][index] = (int) (100 * ((float)countTaken) / total);
             adherence[1][index] = adherence[0][index] + (int) (100 * ((float)countLate) / total);
@@ -307,7 +307,7 @@ public class ReminderActivity extends BaseActivity {
         imgMedication = (TextView) dialog.findViewById(R.id.imgMedication);
         TextView txtMedicationName = (TextView) dialog.findViewById(R.id.txtMedicationName);
 
-        BitmapDrawable medicationDrawable = new BitmapDrawable(getResources(), medication.getImage());
+        BitmapDrawable medicationDrawable = new BitmapDrawable(getResources(), medication.getImage(this));
         imgMedication.setCompoundDrawablesWithIntrinsicBounds(null, medicationDrawable, null, null);
         imgMedication.setText(String.format(Locale.getDefault(), "%d mg", dosageMapping.get(medication)));
         txtMedicationName.setText(medication.getName());
@@ -358,7 +358,7 @@ public class ReminderActivity extends BaseActivity {
             }
 
             if (medicationImage != null)
-                medication.setImage(medicationImage);
+                medication.setImage(this, medicationImage);
 
             dialog.dismiss();
             medicationAdapter.notifyDataSetChanged();
@@ -398,7 +398,7 @@ public class ReminderActivity extends BaseActivity {
         refreshImage.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                medicationImage = medication.getDefaultImage();
+                medicationImage = medication.getDefaultImage(ReminderActivity.this);
                 BitmapDrawable medicationDrawable1 = new BitmapDrawable(ReminderActivity.this.getResources(), medicationImage);
                 imgMedication.setCompoundDrawablesWithIntrinsicBounds(null, medicationDrawable1, null, null);
             }
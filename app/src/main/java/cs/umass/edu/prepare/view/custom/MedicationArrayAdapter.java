@@ -10,7 +10,6 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Locale;
@@ -19,6 +18,7 @@ import java.util.Map;
 import cs.umass.edu.prepare.data.Medication;
 import cs.umass.edu.prepare.R;
 import cs.umass.edu.prepare.constants.Constants;
+import cs.umass.edu.prepare.util.DateFormatter;
 
 public class MedicationArrayAdapter extends BaseAdapter {
 
@@ -26,7 +26,7 @@ public class MedicationArrayAdapter extends BaseAdapter {
     private final Map<Medication, Integer> dosageMapping;
     private final Map<Medication, Calendar[]> dailySchedule;
     private final Context context;
-    private final SimpleDateFormat dateFormat;
+    private final DateFormatter dateFormat;
 
     private LayoutInflater inflater=null;
     private TextView dataView, imageView;
@@ -89,7 +89,7 @@ public class MedicationArrayAdapter extends BaseAdapter {
             dataView = holder.txtMedication;
 
         holder.txtMedication.setText(medications.get(position).getName());
-        BitmapDrawable medicationDrawable = new BitmapDrawable(context.getResources(), medications.get(position).getImage());
+        BitmapDrawable medicationDrawable = new BitmapDrawable(context.getResources(), medications.get(position).getImage(context));
         holder.txtDosage.setCompoundDrawablesWithIntrinsicBounds(null, medicationDrawable, null, null);
         holder.txtDosage.setText(String.format(Locale.getDefault(), "%d mg", dosageMapping.get(medications.get(position))));
         String output = "";
@@ -84,7 +84,7 @@ public class MedicationCheckboxAdapter extends BaseAdapter {
                 }
             }
         });
-        BitmapDrawable medicationDrawable = new BitmapDrawable(context.getResources(), medications.get(position).getImage());
+        BitmapDrawable medicationDrawable = new BitmapDrawable(context.getResources(), medications.get(position).getImage(context));
         holder.imgMedication.setImageDrawable(medicationDrawable);
         return rowView[position];
     }
@@ -0,0 +1,129 @@
+package cs.umass.edu.prepare.view.custom;
+
+import java.util.List;
+
+import cs.umass.edu.prepare.data.Adherence;
+import cs.umass.edu.prepare.data.AdherenceStore;
+import cs.umass.edu.prepare.data.Medication;
+import cs.umass.edu.prepare.util.Utils;
+
+/**
+ * The layout and adherence of one month, as displayed by {@link MonthAdherenceView}. The
+ * adherence types are copied out of the {@link AdherenceStore} into a primitive array when the
+ * model is built, so drawing the month requires no lookups and no allocations.
+ *
+ * Cells are numbered row by row, starting on Sunday; the cells preceding the first day of the
+ * month are empty.
+ */
+class MonthAdherence {
+
+    /** The number of cells in a week. */
+    static final int COLUMNS = 7;
+
+    /** The number of doses per medication per day, i.e. AM and PM. */
+    static final int DOSES = 2;
+
+    private static final Adherence.AdherenceType[] ADHERENCE_TYPES = Adherence.AdherenceType.values();
+
+    /** The epoch day of the first day of the month, see {@link Utils#getEpochDay(int, int, int)}. */
+    private final int firstEpochDay;
+
+    /** The number of empty cells preceding the first day of the month. */
+    private final int leadingCells;
+
+    private final int daysInMonth;
+
+    private final int medicationCount;
+
+    /** The ordinal of the adherence type plus one, or 0 if none, indexed by day, medication and dose. */
+    private final byte[] adherenceTypes;
+
+    /**
+     * Builds the model of a month.
+     * @param year the year.
+     * @param month the 0-index month.
+     * @param adherenceData the adherence data, null if none.
+     * @param medications the medications, in the order in which they are displayed, null if none.
+     */
+    MonthAdherence(int year, int month, AdherenceStore adherenceData, List<Medication> medications){
+        firstEpochDay = Utils.getEpochDay(year, month, 1);
+        int nextMonth = month == 11 ? Utils.getEpochDay(year + 1, 0, 1) : Utils.getEpochDay(year, month + 1, 1);
+        daysInMonth = nextMonth - firstEpochDay;
+        leadingCells = ((firstEpochDay + 4) % COLUMNS + COLUMNS) % COLUMNS; // January 1, 1970 was a Thursday
+        medicationCount = medications == null ? 0 : medications.size();
+        adherenceTypes = new byte[daysInMonth * medicationCount * DOSES];
+        if (adherenceData == null || medicationCount == 0)
+            return;
+        int i = 0;
+        for (int day = 0; day < daysInMonth; day++) {
+            for (Medication medication : medications) {
+                for (int dose = 0; dose < DOSES; dose++) {
+                    Adherence.AdherenceType adherenceType = adherenceData.getAdherenceType(firstEpochDay + day, medication, dose);
+                    adherenceTypes[i++] = (byte) (adherenceType == null ? 0 : adherenceType.ordinal() + 1);
+                }
+            }
+        }
+    }
+
+    int getFirstEpochDay(){
+        return firstEpochDay;
+    }
+
+    int getDaysInMonth(){
+        return daysInMonth;
+    }
+
+    int getMedicationCount(){
+        return medicationCount;
+    }
+
+    /**
+     * Returns the number of cells, including the empty cells preceding the first day of the month.
+     */
+    int getCellCount(){
+        return leadingCells + daysInMonth;
+    }
+
+    int getRowCount(){
+        return (getCellCount() + COLUMNS - 1) / COLUMNS;
+    }
+
+    /**
+     * Returns the day of the month displayed in the given cell.
+     * @param cell the index of the cell.
+     * @return the 1-index day of the month, or 0 if the cell is empty.
+     */
+    int getDayOfMonth(int cell){
+        int day = cell - leadingCells + 1;
+        return day >= 1 && day <= daysInMonth ? day : 0;
+    }
+
+    /**
+     * Returns the cell in which the given day of the month is displayed.
+     * @param dayOfMonth the 1-index day of the month.
+     */
+    int getCell(int dayOfMonth){
+        return leadingCells + dayOfMonth - 1;
+    }
+
+    /**
+     * Returns the adherence type of a dose.
+     * @param dayOfMonth the 1-index day of the month.
+     * @param medication the index of the medication.
+     * @param dose the index into the day, i.e. AM or PM.
+     * @return the adherence type, or null if no adherence has been set.
+     */
+    Adherence.AdherenceType getAdherenceType(int dayOfMonth, int medication, int dose){
+        int ordinal = adherenceTypes[((dayOfMonth - 1) * medicationCount + medication) * DOSES + dose];
+        return ordinal == 0 ? null : ADHERENCE_TYPES[ordinal - 1];
+    }
+
+    /**
+     * Indicates whether any date in the given range falls in the month.
+     * @param fromEpochDay the first date of the range.
+     * @param toEpochDay the last date of the range, inclusive.
+     */
+    boolean overlaps(int fromEpochDay, int toEpochDay){
+        return fromEpochDay < firstEpochDay + daysInMonth && firstEpochDay <= toEpochDay;
+    }
+}
@@ -0,0 +1,168 @@
+package cs.umass.edu.prepare.view.custom;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import cs.umass.edu.prepare.data.AdherenceStore;
+import cs.umass.edu.prepare.data.Medication;
+
+/**
+ * Holds the {@link MonthAdherence} models of the displayed month and the months on either side,
+ * so that switching to an adjacent month does not copy the adherence data on the main thread.
+ * The adjacent months are built on a background executor by {@link #prefetch(int, int)}.
+ *
+ * The cache is only accessed from the main thread. When the adherence data changes, only the
+ * months overlapping the changed dates are dropped, see {@link #invalidate(int, int)}. Since the
+ * {@link AdherenceStore} may be modified while a month is built in the background, the result of
+ * a build is discarded if the cache was invalidated in the meantime; the month is then rebuilt.
+ */
+public class MonthAdherenceCache {
+
+    /** The number of months on either side of the displayed month which are kept. */
+    private static final int PREFETCH_DISTANCE = 1;
+
+    /** Builds the months in the background. */
+    private final Executor executor;
+
+    /** Delivers the built months to the main thread. */
+    private final Executor mainThreadExecutor;
+
+    /** The months, keyed by {@link #getKey(int, int)}. */
+    private final Map<Integer, MonthAdherence> months = new HashMap<>();
+
+    /** The generation at which each month being built was requested, keyed by {@link #getKey(int, int)}. */
+    private final Map<Integer, Integer> pending = new HashMap<>();
+
+    /** Incremented whenever the cache is invalidated, so that stale builds are discarded. */
+    private int generation;
+
+    /** The key of the displayed month, or -1 if {@link #prefetch(int, int)} has not been called. */
+    private int displayedKey = -1;
+
+    private AdherenceStore adherenceData;
+
+    private List<Medication> medications;
+
+    /**
+     * @param executor the executor on which the adjacent months are built.
+     * @param mainThreadExecutor the executor which runs tasks on the main thread.
+     */
+    public MonthAdherenceCache(Executor executor, Executor mainThreadExecutor){
+        this.executor = executor;
+        this.mainThreadExecutor = mainThreadExecutor;
+    }
+
+    private static int getKey(int year, int month){
+        return year * 12 + month;
+    }
+
+    /**
+     * Sets the data from which the months are built, and drops all months.
+     * @param adherenceData the adherence data, keyed by epoch day.
+     * @param medications the list of medications.
+     */
+    public void setData(AdherenceStore adherenceData, List<Medication> medications){
+        this.adherenceData = adherenceData;
+        this.medications = medications;
+        months.clear();
+        pending.clear();
+        generation++;
+        prefetchDisplayed();
+    }
+
+    /**
+     * Drops the months overlapping the given range of dates, e.g. after a {@link cs.umass.edu.prepare.data.DataChangeEvent}.
+     * @param fromEpochDay the first changed date.
+     * @param toEpochDay the last changed date, inclusive.
+     */
+    public void invalidate(int fromEpochDay, int toEpochDay){
+        Iterator<MonthAdherence> iterator = months.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().overlaps(fromEpochDay, toEpochDay))
+                iterator.remove();
+        }
+        pending.clear();
+        generation++;
+        prefetchDisplayed();
+    }
+
+    /**
+     * Rebuilds the months around the displayed month after the cache was invalidated.
+     */
+    private void prefetchDisplayed(){
+        if (displayedKey >= 0)
+            prefetch(displayedKey / 12, displayedKey % 12);
+    }
+
+    /**
+     * Returns a month, building it on the calling thread if it is not cached.
+     * @param year the year.
+     * @param month the 0-index month.
+     */
+    MonthAdherence get(int year, int month){
+        int key = getKey(year, month);
+        MonthAdherence monthAdherence = months.get(key);
+        if (monthAdherence == null) {
+            monthAdherence = new MonthAdherence(year, month, adherenceData, medications);
+            months.put(key, monthAdherence);
+        }
+        return monthAdherence;
+    }
+
+    /**
+     * Indicates whether a month is cached.
+     */
+    boolean contains(int year, int month){
+        return months.containsKey(getKey(year, month));
+    }
+
+    /**
+     * Drops the months which are no longer adjacent to the displayed month and builds the
+     * adjacent months which are not cached in the background.
+     * @param year the year of the displayed month.
+     * @param month the 0-index displayed month.
+     */
+    void prefetch(int year, int month){
+        final int center = getKey(year, month);
+        displayedKey = center;
+        Iterator<Integer> iterator = months.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (Math.abs(iterator.next() - center) > PREFETCH_DISTANCE)
+                iterator.remove();
+        }
+
+        for (int key = center - PREFETCH_DISTANCE; key <= center + PREFETCH_DISTANCE; key++) {
+            if (months.containsKey(key) || pending.containsKey(key))
+                continue;
+            final int requestedKey = key;
+            final int requestedGeneration = generation;
+            final AdherenceStore adherenceData = this.adherenceData;
+            final List<Medication> medications = this.medications;
+            pending.put(requestedKey, requestedGeneration);
+            executor.execute(() -> {
+                MonthAdherence monthAdherence;
+                try {
+                    monthAdherence = new MonthAdherence(requestedKey / 12, requestedKey % 12, adherenceData, medications);
+                } catch (RuntimeException e) {
+                    monthAdherence = null; // the data was modified concurrently and the cache invalidated
+                }
+                final MonthAdherence result = monthAdherence;
+                mainThreadExecutor.execute(() -> onBuilt(requestedKey, requestedGeneration, result));
+            });
+        }
+    }
+
+    /**
+     * Caches a month built in the background, unless the cache was invalidated in the meantime.
+     */
+    private void onBuilt(int key, int requestedGeneration, MonthAdherence monthAdherence){
+        Integer pendingGeneration = pending.get(key);
+        if (pendingGeneration != null && pendingGeneration == requestedGeneration)
+            pending.remove(key);
+        if (monthAdherence != null && requestedGeneration == generation && !months.containsKey(key))
+            months.put(key, monthAdherence);
+    }
+}
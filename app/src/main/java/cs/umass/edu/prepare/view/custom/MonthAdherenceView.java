@@ -0,0 +1,400 @@
+package cs.umass.edu.prepare.view.custom;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.DashPathEffect;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import java.util.Calendar;
+
+import cs.umass.edu.prepare.R;
+import cs.umass.edu.prepare.data.Adherence;
+import cs.umass.edu.prepare.util.Utils;
+
+/**
+ * Displays a month as a calendar grid. Each date cell may contain a daily adherence overview in
+ * the form of color-coded squares, giving the user a meaningful yet intuitive overview of monthly
+ * adherence.
+ *
+ * The entire grid is drawn by this single view from a {@link MonthAdherence} model, using
+ * paints allocated once, rather than inflating a view per date and per medication. The model
+ * is only rebuilt when the month or the data changes, so drawing allocates nothing.
+ */
+public class MonthAdherenceView extends View {
+
+    /** used for debugging purposes */
+    @SuppressWarnings("unused")
+    private static final String TAG = MonthAdherenceView.class.getName();
+
+    /**
+     * Indicates the calendar type, either {@link #BASIC} for a traditional calendar
+     * or {@link #DETAILED} if each date should also display adherence overview.
+     */
+    public enum DisplayType {
+        BASIC,
+        DETAILED
+    }
+
+    /**
+     * Notified when the user taps a date.
+     */
+    public interface OnDateClickListener {
+        /**
+         * @param dayOfMonth the 1-index day of the month displayed.
+         */
+        void onDateClick(int dayOfMonth);
+    }
+
+    /** The labels of the days of the month, so that drawing does not allocate strings. */
+    private static final String[] DAY_LABELS = new String[32];
+
+    static {
+        for (int day = 1; day < DAY_LABELS.length; day++)
+            DAY_LABELS[day] = String.valueOf(day);
+    }
+
+    /** Indicates whether calendar cells should display adherence details. By default show details in each date cell. **/
+    private DisplayType displayType = DisplayType.DETAILED;
+
+    /** Provides the model of each month. */
+    private MonthAdherenceCache cache;
+
+    /** The displayed month, null until {@link #setMonth(int, int)} is called. */
+    private MonthAdherence model;
+
+    /** The selected date as an epoch day, see {@link Utils#getEpochDay(Calendar)}. */
+    private int selectedEpochDay;
+
+    private OnDateClickListener onDateClickListener;
+
+    /** The spacing between cells. */
+    private final float spacing;
+
+    /** The padding inside each cell. */
+    private final float cellPadding;
+
+    /** The space between the date and the adherence squares. */
+    private final float dateMargin;
+
+    /** The height of an adherence square. */
+    private final float squareHeight;
+
+    /** The horizontal margin around each adherence square. */
+    private final float squareMargin;
+
+    /** The height of a row of adherence squares, including its margins. */
+    private final float squareRowHeight;
+
+    /** The minimum height of a cell displaying adherence details. */
+    private final float minDetailedCellHeight;
+
+    private final Paint datePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final Paint selectedPaint = new Paint();
+
+    /** Fills the adherence squares, indexed by {@link Adherence.AdherenceType#ordinal()}. */
+    private final Paint[] fillPaints = new Paint[Adherence.AdherenceType.values().length];
+
+    private final Paint borderPaint = new Paint();
+
+    /** Outlines the squares of doses which were taken at an unknown time. */
+    private final Paint dashedBorderPaint = new Paint();
+
+    /** The background of each date cell, which reflects the pressed state. */
+    private final Drawable cellBackground;
+
+    private final int dateColor;
+
+    private final int touchSlop;
+
+    private float cellWidth;
+
+    private float cellHeight;
+
+    /** The cell being pressed, or -1 if none. */
+    private int pressedCell = -1;
+
+    private float downX;
+
+    private float downY;
+
+    public MonthAdherenceView(Context context) {
+        this(context, null);
+    }
+
+    public MonthAdherenceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        spacing = dp(2);
+        cellPadding = dp(8);
+        dateMargin = dp(6);
+        squareHeight = dp(8);
+        squareMargin = dp(2);
+        squareRowHeight = squareHeight + dp(4) + dp(4);
+        minDetailedCellHeight = dp(108);
+
+        dateColor = ContextCompat.getColor(context, R.color.color_calendar_item_date_text);
+        datePaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 14, getResources().getDisplayMetrics()));
+        datePaint.setTypeface(Typeface.DEFAULT_BOLD);
+        datePaint.setTextAlign(Paint.Align.CENTER);
+        selectedPaint.setColor(ContextCompat.getColor(context, R.color.color_calendar_item_background_selected));
+
+        for (Adherence.AdherenceType adherenceType : Adherence.AdherenceType.values()) {
+            Paint paint = new Paint();
+            paint.setColor(getColorForAdherence(context, adherenceType));
+            fillPaints[adherenceType.ordinal()] = paint;
+        }
+        int borderColor = ContextCompat.getColor(context, R.color.color_border);
+        borderPaint.setStyle(Paint.Style.STROKE);
+        borderPaint.setStrokeWidth(2);
+        borderPaint.setColor(borderColor);
+        dashedBorderPaint.setStyle(Paint.Style.STROKE);
+        dashedBorderPaint.setStrokeWidth(8);
+        dashedBorderPaint.setColor(borderColor);
+        dashedBorderPaint.setPathEffect(new DashPathEffect(new float[]{5, 5}, 0));
+
+        cellBackground = ContextCompat.getDrawable(context, R.drawable.list_item_background);
+        touchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+    }
+
+    private float dp(float value){
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value, getResources().getDisplayMetrics());
+    }
+
+    /**
+     * Returns the fill color of an adherence square, consistent with {@link Utils#getDrawableForAdherence(Context, Adherence.AdherenceType)}.
+     */
+    private static int getColorForAdherence(Context context, Adherence.AdherenceType adherenceType){
+        switch (adherenceType){
+            case MISSED:
+                return ContextCompat.getColor(context, R.color.color_dose_missed);
+            case TAKEN:
+            case TAKEN_CLARIFY_TIME:
+                return ContextCompat.getColor(context, R.color.color_dose_taken);
+            case TAKEN_EARLY_OR_LATE:
+                return ContextCompat.getColor(context, R.color.color_dose_late);
+            case FUTURE:
+                return ContextCompat.getColor(context, R.color.color_dose_future);
+            default:
+                return Color.TRANSPARENT;
+        }
+    }
+
+    /**
+     * Sets the cache from which the displayed months are obtained, which holds the data.
+     * @param cache the cache.
+     */
+    public void setMonthAdherenceCache(MonthAdherenceCache cache){
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the displayed month, and prefetches the adjacent months.
+     * @param year the year.
+     * @param month the 0-index month.
+     */
+    public void setMonth(int year, int month){
+        MonthAdherence model = cache.get(year, month);
+        cache.prefetch(year, month);
+        if (model == this.model)
+            return;
+        int rowCount = this.model == null ? -1 : this.model.getRowCount();
+        int medicationCount = this.model == null ? -1 : this.model.getMedicationCount();
+        this.model = model;
+        pressedCell = -1;
+        if (rowCount != model.getRowCount() || medicationCount != model.getMedicationCount())
+            requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Sets the selected date.
+     * @param selectedDate a {@link Calendar} object corresponding to the selected date.
+     */
+    public void setSelectedDate(Calendar selectedDate){
+        selectedEpochDay = Utils.getEpochDay(selectedDate);
+        invalidate();
+    }
+
+    /**
+     * Sets the form in which the calendar should be displayed.
+     * @param displayType {@link DisplayType#BASIC} indicates that a traditional calendar should
+     *        be displayed. {@link DisplayType#DETAILED} indicates that each cell should contain
+     *        an overview of adherence details.
+     */
+    public void setDisplayType(DisplayType displayType){
+        if (this.displayType == displayType)
+            return;
+        this.displayType = displayType;
+        requestLayout();
+        invalidate();
+    }
+
+    public void setOnDateClickListener(OnDateClickListener onDateClickListener){
+        this.onDateClickListener = onDateClickListener;
+    }
+
+    /**
+     * Indicates whether any date in the given range is displayed, i.e. falls in the selected month.
+     * @param fromEpochDay the first date of the range, see {@link Utils#getEpochDay(int, int, int)}.
+     * @param toEpochDay the last date of the range, inclusive.
+     * @return true if the range overlaps the selected month.
+     */
+    public boolean isDisplayed(int fromEpochDay, int toEpochDay){
+        return model != null && model.overlaps(fromEpochDay, toEpochDay);
+    }
+
+    /**
+     * Returns the height of the date and the padding above it.
+     */
+    private float getDateHeight(){
+        return cellPadding + datePaint.getFontSpacing() + dateMargin;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        cellWidth = (width - getPaddingLeft() - getPaddingRight() - spacing * (MonthAdherence.COLUMNS - 1)) / MonthAdherence.COLUMNS;
+        cellHeight = getDateHeight() + cellPadding;
+        if (displayType == DisplayType.DETAILED && model != null)
+            cellHeight = Math.max(minDetailedCellHeight, cellHeight + model.getMedicationCount() * squareRowHeight);
+        int rowCount = model == null ? 0 : model.getRowCount();
+        int height = (int) Math.ceil(rowCount * cellHeight + Math.max(0, rowCount - 1) * spacing) + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    private float getCellLeft(int cell){
+        return getPaddingLeft() + (cell % MonthAdherence.COLUMNS) * (cellWidth + spacing);
+    }
+
+    private float getCellTop(int cell){
+        return getPaddingTop() + (cell / MonthAdherence.COLUMNS) * (cellHeight + spacing);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (model == null)
+            return;
+        int selectedCell = -1;
+        int selectedDayOfMonth = selectedEpochDay - model.getFirstEpochDay() + 1;
+        if (selectedDayOfMonth >= 1 && selectedDayOfMonth <= model.getDaysInMonth())
+            selectedCell = model.getCell(selectedDayOfMonth);
+
+        for (int cell = 0; cell < model.getCellCount(); cell++) {
+            int dayOfMonth = model.getDayOfMonth(cell);
+            if (dayOfMonth == 0)
+                continue; // empty days from the beginning
+            float left = getCellLeft(cell);
+            float top = getCellTop(cell);
+
+            cellBackground.setBounds((int) left, (int) top, (int) (left + cellWidth), (int) (top + cellHeight));
+            cellBackground.setState(cell == pressedCell ? PRESSED_ENABLED_STATE_SET : ENABLED_STATE_SET);
+            cellBackground.draw(canvas);
+
+            int column = cell % MonthAdherence.COLUMNS;
+            if (cell == selectedCell) {
+                canvas.drawRect(left, top, left + cellWidth, top + cellHeight, selectedPaint);
+                datePaint.setColor(dateColor);
+            } else if (column == 0 || column == MonthAdherence.COLUMNS - 1) { // Sunday or Saturday
+                datePaint.setColor(Color.GRAY);
+            } else {
+                datePaint.setColor(dateColor);
+            }
+            canvas.drawText(DAY_LABELS[dayOfMonth], left + cellWidth / 2, top + cellPadding - datePaint.ascent(), datePaint);
+
+            if (displayType == DisplayType.DETAILED)
+                drawAdherence(canvas, dayOfMonth, left, top);
+        }
+    }
+
+    /**
+     * Draws a row of adherence squares for each medication below the date.
+     * @param left the left edge of the cell.
+     * @param top the top edge of the cell.
+     */
+    private void drawAdherence(Canvas canvas, int dayOfMonth, float left, float top){
+        int medicationCount = model.getMedicationCount();
+        if (medicationCount == 0)
+            return;
+        // the rows share the height below the date equally
+        float rowsTop = top + getDateHeight();
+        float rowHeight = (cellHeight - getDateHeight() - cellPadding) / medicationCount;
+        float squareWidth = (cellWidth - 2 * cellPadding) / MonthAdherence.DOSES;
+        for (int medication = 0; medication < medicationCount; medication++) {
+            float squareTop = rowsTop + medication * rowHeight + (rowHeight - squareHeight) / 2;
+            for (int dose = 0; dose < MonthAdherence.DOSES; dose++) {
+                Adherence.AdherenceType adherenceType = model.getAdherenceType(dayOfMonth, medication, dose);
+                if (adherenceType == null || adherenceType == Adherence.AdherenceType.NONE)
+                    continue;
+                float squareLeft = left + cellPadding + dose * squareWidth + squareMargin;
+                float squareRight = squareLeft + squareWidth - 2 * squareMargin;
+                canvas.drawRect(squareLeft, squareTop, squareRight, squareTop + squareHeight, fillPaints[adherenceType.ordinal()]);
+                canvas.drawRect(squareLeft, squareTop, squareRight, squareTop + squareHeight,
+                        adherenceType == Adherence.AdherenceType.TAKEN_CLARIFY_TIME ? dashedBorderPaint : borderPaint);
+            }
+        }
+    }
+
+    /**
+     * Returns the cell at the given position, or -1 if there is no date at that position.
+     */
+    private int getCellAt(float x, float y){
+        if (model == null)
+            return -1;
+        int column = (int) ((x - getPaddingLeft()) / (cellWidth + spacing));
+        int row = (int) ((y - getPaddingTop()) / (cellHeight + spacing));
+        if (x < getPaddingLeft() || y < getPaddingTop() || column >= MonthAdherence.COLUMNS)
+            return -1;
+        int cell = row * MonthAdherence.COLUMNS + column;
+        return cell < model.getCellCount() && model.getDayOfMonth(cell) != 0 ? cell : -1;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                downX = event.getX();
+                downY = event.getY();
+                setPressedCell(getCellAt(downX, downY));
+                return true; // receive the remaining events, also for swipes
+            case MotionEvent.ACTION_MOVE:
+                if (Math.abs(event.getX() - downX) > touchSlop || Math.abs(event.getY() - downY) > touchSlop)
+                    setPressedCell(-1); // e.g. a swipe
+                return true;
+            case MotionEvent.ACTION_UP:
+                int cell = pressedCell;
+                setPressedCell(-1);
+                if (cell >= 0) {
+                    performClick();
+                    if (onDateClickListener != null)
+                        onDateClickListener.onDateClick(model.getDayOfMonth(cell));
+                }
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                setPressedCell(-1);
+                return true;
+        }
+        return super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    private void setPressedCell(int cell){
+        if (pressedCell == cell)
+            return;
+        pressedCell = cell;
+        invalidate();
+    }
+}
@@ -0,0 +1,135 @@
+package cs.umass.edu.prepare.data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import cs.umass.edu.prepare.util.Utils;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests reading an adherence delta, applying it and appending it to the adherence journal.
+ */
+public class AdherenceDeltaTest {
+
+    private final Medication ritonavir = new Medication("Ritonavir");
+
+    private final int day = Utils.getEpochDay(2017, Calendar.AUGUST, 15);
+
+    private static final String DELTA = "{\"2017-08-15\": {\"Ritonavir\": [[\"TAKEN\", \"8:05\"], [null, null]]},"
+            + " \"2017-08-17\": {\"Ritonavir\": [[\"MISSED\", \"null\"], [\"FUTURE\", \"20:00\"]]}}";
+
+    private AdherenceDelta readDelta() throws IOException, JSONException {
+        List<Medication> medications = new ArrayList<>();
+        medications.add(ritonavir);
+        return AdherenceJsonReader.readDelta(new JSONObject(DELTA), medications);
+    }
+
+    @Test
+    public void readsClearedSlots() throws IOException, JSONException {
+        AdherenceDelta delta = readDelta();
+        assertEquals(4, delta.size());
+        assertEquals(day, delta.getFirstDay());
+        assertEquals(day + 2, delta.getLastDay());
+        assertEquals(AdherenceFormat.EMPTY, delta.getSlot(1));
+    }
+
+    @Test
+    public void appliesOnlyChangedDays() throws IOException, JSONException {
+        AdherenceStore store = new AdherenceStore();
+        store.setAdherence(day, ritonavir, 1, new Adherence(Adherence.AdherenceType.TAKEN, Utils.getDateKey(day)));
+        store.setAdherence(day + 1, ritonavir, 0, new Adherence(Adherence.AdherenceType.MISSED, null));
+
+        readDelta().applyTo(store);
+
+        assertEquals(Adherence.AdherenceType.TAKEN, store.getAdherenceType(day, ritonavir, 0));
+        assertNull(store.getAdherenceType(day, ritonavir, 1));
+        assertEquals(Adherence.AdherenceType.MISSED, store.getAdherenceType(day + 1, ritonavir, 0));
+        assertEquals(Adherence.AdherenceType.MISSED, store.getAdherenceType(day + 2, ritonavir, 0));
+        assertEquals(Adherence.AdherenceType.FUTURE, store.getAdherenceType(day + 2, ritonavir, 1));
+    }
+
+    @Test
+    public void journalReplaysDelta() throws IOException, JSONException {
+        File file = File.createTempFile("adherence_journal", null);
+        try {
+            AdherenceDelta delta = readDelta();
+            AdherenceJournal journal = new AdherenceJournal(file);
+            journal.append(delta);
+
+            AdherenceStore expected = new AdherenceStore();
+            delta.applyTo(expected);
+            AdherenceStore replayed = new AdherenceStore();
+            int size = new AdherenceJournal(file).replay((epochDay, medicationName, index, adherenceType, timeTaken) -> {
+                Adherence adherence = null;
+                if (adherenceType != null)
+                    adherence = new Adherence(adherenceType, timeTaken < 0 ? null : Utils.timestampToCalendar(timeTaken));
+                replayed.setSlot(epochDay, medicationName, index, AdherenceFormat.pack(adherence));
+            });
+
+            assertEquals(delta.size(), size);
+            for (int epochDay = day; epochDay <= day + 2; epochDay++)
+                for (int i = 0; i < AdherenceStore.SLOTS_PER_DAY; i++)
+                    assertEquals(expected.getSlot(epochDay, ritonavir, i), replayed.getSlot(epochDay, ritonavir, i));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void journalStopsAtCorruptRecord() throws IOException {
+        File file = File.createTempFile("adherence_journal", null);
+        try {
+            AdherenceJournal journal = new AdherenceJournal(file);
+            journal.append(day, ritonavir.getName(), 0, new Adherence(Adherence.AdherenceType.MISSED, null));
+            FileOutputStream outputStream = new FileOutputStream(file, true);
+            try {
+                outputStream.write(new byte[32]); // a zero-filled tail
+            } finally {
+                outputStream.close();
+            }
+            journal.append(day, ritonavir.getName(), 1, new Adherence(Adherence.AdherenceType.TAKEN, null));
+
+            List<Integer> indices = new ArrayList<>();
+            journal = new AdherenceJournal(file);
+            int size = journal.replay((epochDay, medicationName, index, adherenceType, timeTaken) -> indices.add(index));
+
+            assertEquals(1, size);
+            assertEquals(0, (int) indices.get(0));
+            assertTrue(journal.shouldCompact());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void journalNotCompactedWhilePending() throws IOException {
+        File file = File.createTempFile("adherence_journal", null);
+        try {
+            AdherenceJournal journal = new AdherenceJournal(file);
+            for (int i = 0; i < AdherenceJournal.COMPACTION_THRESHOLD; i++)
+                journal.append(day + i, ritonavir.getName(), 0, new Adherence(Adherence.AdherenceType.MISSED, null));
+            assertTrue(journal.shouldCompact());
+
+            journal.setCompactionPending(true);
+            assertFalse(journal.shouldCompact());
+            journal.setCompactionPending(false); // the compaction failed
+            assertTrue(journal.shouldCompact());
+
+            journal.setCompactionPending(true);
+            journal.reset();
+            journal.append(day, ritonavir.getName(), 1, null);
+            assertFalse(journal.shouldCompact());
+        } finally {
+            assertTrue(!file.exists() || file.delete());
+        }
+    }
+}
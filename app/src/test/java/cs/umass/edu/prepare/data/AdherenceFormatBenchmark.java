@@ -0,0 +1,120 @@
+package cs.umass.edu.prepare.data;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cs.umass.edu.prepare.util.Utils;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the compact {@link AdherenceFormat} against the adherence data serialized as a Java
+ * object, for two years of data for four medications. Only the file size is asserted, since
+ * load times are not reliable in unit tests.
+ */
+public class AdherenceFormatBenchmark {
+
+    private static final int NUMBER_OF_DAYS = 2 * 365;
+
+    private static List<Medication> getMedications(){
+        List<Medication> medications = new ArrayList<>();
+        medications.add(new Medication("Ritonavir"));
+        medications.add(new Medication("Prezista"));
+        medications.add(new Medication("Norvir"));
+        medications.add(new Medication("Descovy"));
+        return medications;
+    }
+
+    private static Map<Calendar, Map<Medication, Adherence[]>> getAdherenceData(List<Medication> medications){
+        Adherence.AdherenceType[] adherenceTypes = Adherence.AdherenceType.values();
+        Map<Calendar, Map<Medication, Adherence[]>> adherenceData = new TreeMap<>();
+        int firstDay = Utils.getEpochDay(2016, Calendar.JANUARY, 1);
+        for (int day = 0; day < NUMBER_OF_DAYS; day++) {
+            Map<Medication, Adherence[]> dailyAdherence = new HashMap<>();
+            for (int i = 0; i < medications.size(); i++) {
+                Adherence[] adherence = new Adherence[2];
+                for (int slot = 0; slot < adherence.length; slot++) {
+                    Calendar timeTaken = Utils.getDateKey(firstDay + day);
+                    timeTaken.set(Calendar.HOUR_OF_DAY, 7 + 10 * slot);
+                    timeTaken.set(Calendar.MINUTE, (day * 7 + i) % 60);
+                    adherence[slot] = new Adherence(adherenceTypes[(day + i + slot) % adherenceTypes.length], timeTaken);
+                }
+                dailyAdherence.put(medications.get(i), adherence);
+            }
+            adherenceData.put(Utils.getDateKey(firstDay + day), dailyAdherence);
+        }
+        return adherenceData;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        List<Medication> medications = getMedications();
+        Map<Calendar, Map<Medication, Adherence[]>> adherenceData = getAdherenceData(medications);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AdherenceFormat.write(AdherenceStore.fromMap(adherenceData), new DataOutputStream(bytes));
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(AdherenceFormat.isAdherenceFormat(inputStream));
+        AdherenceStore result = AdherenceFormat.read(inputStream);
+
+        assertEquals(adherenceData.size(), result.getLastDay() - result.getFirstDay() + 1);
+        for (Map.Entry<Calendar, Map<Medication, Adherence[]>> entry : adherenceData.entrySet()) {
+            Map<Medication, Adherence[]> expected = entry.getValue();
+            int epochDay = Utils.getEpochDay(entry.getKey());
+            assertTrue(result.contains(epochDay));
+            for (Medication medication : medications) {
+                for (int slot = 0; slot < 2; slot++) {
+                    Adherence expectedAdherence = expected.get(medication)[slot];
+                    Adherence actualAdherence = result.getAdherence(epochDay, medication, slot);
+                    assertEquals(expectedAdherence.getAdherenceType(), actualAdherence.getAdherenceType());
+                    assertEquals(expectedAdherence.getTimeTaken().get(Calendar.HOUR_OF_DAY), actualAdherence.getTimeTaken().get(Calendar.HOUR_OF_DAY));
+                    assertEquals(expectedAdherence.getTimeTaken().get(Calendar.MINUTE), actualAdherence.getTimeTaken().get(Calendar.MINUTE));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void isAdherenceFormat_legacyFile() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+        outputStream.writeObject(getAdherenceData(getMedications()));
+        outputStream.close();
+
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertFalse(AdherenceFormat.isAdherenceFormat(inputStream));
+        // the stream must be left intact for the legacy reader
+        assertNotNull(new ObjectInputStream(inputStream).readObject());
+    }
+
+    @Test
+    public void smallerThanSerialization() throws Exception {
+        List<Medication> medications = getMedications();
+        Map<Calendar, Map<Medication, Adherence[]>> adherenceData = getAdherenceData(medications);
+
+        ByteArrayOutputStream serializedBytes = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(serializedBytes);
+        objectOutputStream.writeObject(adherenceData);
+        objectOutputStream.close();
+        byte[] serialized = serializedBytes.toByteArray();
+
+        ByteArrayOutputStream compactBytes = new ByteArrayOutputStream();
+        AdherenceFormat.write(AdherenceStore.fromMap(adherenceData), new DataOutputStream(compactBytes));
+        byte[] compact = compactBytes.toByteArray();
+
+        assertTrue(compact.length * 10 < serialized.length);
+    }
+}
@@ -0,0 +1,134 @@
+package cs.umass.edu.prepare.data;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import cs.umass.edu.prepare.util.Utils;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link AdherenceJsonReader} reads the adherence data of an UPDATE_DATA server
+ * message the same as parsing each slot into a {@link Calendar}, as the service did previously,
+ * for three years of data for four medications. Both start from the {@link JSONObject} in which
+ * the MHL client delivers the message. The reading time is not asserted, since timings are not
+ * reliable in unit tests.
+ */
+public class AdherenceJsonReaderBenchmark {
+
+    private static final int NUMBER_OF_DAYS = 3 * 365;
+
+    private static final String[] ADHERENCE_TYPES = {"TAKEN", "MISSED", "TAKEN_EARLY_OR_LATE", "FUTURE", "NONE"};
+
+    private static List<Medication> getMedications(){
+        List<Medication> medications = new ArrayList<>();
+        medications.add(new Medication("Ritonavir"));
+        medications.add(new Medication("Prezista"));
+        medications.add(new Medication("Norvir"));
+        medications.add(new Medication("Descovy"));
+        return medications;
+    }
+
+    private static String getPayload(List<Medication> medications){
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        int firstDay = Utils.getEpochDay(2015, Calendar.JANUARY, 1);
+        StringBuilder json = new StringBuilder("{");
+        for (int day = 0; day < NUMBER_OF_DAYS; day++) {
+            if (day > 0)
+                json.append(',');
+            json.append('"').append(dateFormat.format(Utils.getDateKey(firstDay + day).getTime())).append("\":{");
+            for (int i = 0; i < medications.size(); i++) {
+                if (i > 0)
+                    json.append(',');
+                json.append('"').append(medications.get(i).getName()).append("\":[");
+                for (int slot = 0; slot < 2; slot++) {
+                    if (slot > 0)
+                        json.append(',');
+                    json.append("[\"").append(ADHERENCE_TYPES[(day + i + slot) % ADHERENCE_TYPES.length])
+                            .append("\",\"").append(7 + 10 * slot).append(':')
+                            .append(String.format(Locale.US, "%02d", (day * 7 + i) % 60)).append("\"]");
+                }
+                json.append(']');
+            }
+            json.append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Reads the adherence data the way the service did previously: each date and time is parsed
+     * into a {@link Calendar} by a {@link SimpleDateFormat}.
+     */
+    private static AdherenceStore readCalendars(JSONObject adherenceData, List<Medication> medications) throws Exception {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyy-MM-dd", Locale.US);
+        SimpleDateFormat timeFormat = new SimpleDateFormat("H:mm", Locale.US);
+        AdherenceStore adherenceStore = new AdherenceStore();
+        Iterator<String> dates = adherenceData.keys();
+        while (dates.hasNext()) {
+            String dateKey = dates.next();
+            Calendar date = Calendar.getInstance();
+            date.setTime(dateFormat.parse(dateKey));
+            int epochDay = Utils.getEpochDay(date);
+            JSONObject medicationAdherence = adherenceData.getJSONObject(dateKey);
+            for (Medication medication : medications) {
+                JSONArray adherenceForMedication = medicationAdherence.getJSONArray(medication.getName());
+                for (int i = 0; i < 2; i++) {
+                    JSONArray adherenceJSON = adherenceForMedication.getJSONArray(i);
+                    Adherence.AdherenceType adherenceType = Adherence.AdherenceType.valueOf(adherenceJSON.getString(0));
+                    Calendar timeTaken = Calendar.getInstance();
+                    timeTaken.setTime(timeFormat.parse(adherenceJSON.getString(1)));
+                    Adherence adherence = new Adherence(adherenceType, adherenceType == Adherence.AdherenceType.MISSED ? null : timeTaken);
+                    adherenceStore.setAdherence(epochDay, medication, i, adherence);
+                }
+            }
+        }
+        return adherenceStore;
+    }
+
+    @Test
+    public void readsSameData() throws Exception {
+        List<Medication> medications = getMedications();
+        JSONObject payload = new JSONObject(getPayload(medications));
+        AdherenceStore expected = readCalendars(payload, medications);
+        AdherenceStore result = AdherenceJsonReader.read(payload, medications);
+
+        assertEquals(expected.getFirstDay(), result.getFirstDay());
+        assertEquals(expected.getLastDay(), result.getLastDay());
+        for (int day = expected.getFirstDay(); day <= expected.getLastDay(); day++)
+            for (Medication medication : medications)
+                for (int i = 0; i < 2; i++)
+                    assertEquals(expected.getSlot(day, medication, i), result.getSlot(day, medication, i));
+    }
+
+    @Test
+    public void skipsUnknownMedications() throws IOException, JSONException {
+        String payload = "{\"2017-08-15\": {\"Ritonavir\": [[\"TAKEN\", \"8:05\"], [\"MISSED\", \"null\"]],"
+                + " \"Unknown\": [[\"TAKEN\", \"9:00\"], [\"TAKEN\", \"21:00\"]]}}";
+        List<Medication> medications = new ArrayList<>();
+        medications.add(new Medication("Ritonavir"));
+        AdherenceStore result = AdherenceJsonReader.read(new JSONObject(payload), medications);
+
+        int epochDay = Utils.getEpochDay(2017, Calendar.AUGUST, 15);
+        assertEquals(1, result.getMedicationNames().size());
+        Adherence adherence = result.getAdherence(epochDay, medications.get(0), 0);
+        assertEquals(Adherence.AdherenceType.TAKEN, adherence.getAdherenceType());
+        assertEquals(8, adherence.getTimeTaken().get(Calendar.HOUR_OF_DAY));
+        assertEquals(5, adherence.getTimeTaken().get(Calendar.MINUTE));
+        assertEquals(Adherence.AdherenceType.MISSED, result.getAdherenceType(epochDay, medications.get(0), 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedDate() throws IOException, JSONException {
+        AdherenceJsonReader.read(new JSONObject("{\"15.08.2017\": {}}"), null);
+    }
+}
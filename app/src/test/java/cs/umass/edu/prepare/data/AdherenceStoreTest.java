@@ -0,0 +1,173 @@
+package cs.umass.edu.prepare.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import cs.umass.edu.prepare.util.Utils;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link AdherenceStore}, in particular that its columns grow in both directions.
+ */
+public class AdherenceStoreTest {
+
+    private final Medication ritonavir = new Medication("Ritonavir");
+
+    private final Medication prezista = new Medication("Prezista");
+
+    @Test
+    public void emptyStore() {
+        AdherenceStore store = new AdherenceStore();
+        assertTrue(store.isEmpty());
+        assertFalse(store.contains(17000));
+        assertNull(store.getAdherenceType(17000, ritonavir, 0));
+        assertNull(store.getAdherence(17000, ritonavir, 1));
+    }
+
+    @Test
+    public void setAndGet() {
+        AdherenceStore store = new AdherenceStore();
+        Calendar timeTaken = Utils.getDateKey(17000);
+        timeTaken.set(Calendar.HOUR_OF_DAY, 19);
+        timeTaken.set(Calendar.MINUTE, 45);
+        store.setAdherence(17000, ritonavir, 1, new Adherence(Adherence.AdherenceType.TAKEN_EARLY_OR_LATE, timeTaken));
+
+        assertFalse(store.isEmpty());
+        assertTrue(store.contains(17000));
+        assertFalse(store.contains(17001));
+        assertNull(store.getAdherenceType(17000, ritonavir, 0));
+        assertNull(store.getAdherenceType(17000, prezista, 1));
+        Adherence adherence = store.getAdherence(17000, new Medication("Ritonavir"), 1);
+        assertEquals(Adherence.AdherenceType.TAKEN_EARLY_OR_LATE, adherence.getAdherenceType());
+        assertEquals(17000, Utils.getEpochDay(adherence.getTimeTaken()));
+        assertEquals(19, adherence.getTimeTaken().get(Calendar.HOUR_OF_DAY));
+        assertEquals(45, adherence.getTimeTaken().get(Calendar.MINUTE));
+
+        store.setAdherence(17000, ritonavir, 1, null);
+        assertFalse(store.contains(17000));
+    }
+
+    @Test
+    public void growsIntoPastAndFuture() {
+        AdherenceStore store = new AdherenceStore();
+        int[] days = {17000, 17100, 16500, 16499, 18000, 17001};
+        for (int i = 0; i < days.length; i++)
+            store.setAdherence(days[i], i % 2 == 0 ? ritonavir : prezista, i % 2, new Adherence(Adherence.AdherenceType.MISSED, null));
+
+        assertEquals(16499, store.getFirstDay());
+        assertEquals(18000, store.getLastDay());
+        for (int i = 0; i < days.length; i++) {
+            assertEquals(Adherence.AdherenceType.MISSED, store.getAdherenceType(days[i], i % 2 == 0 ? ritonavir : prezista, i % 2));
+            assertNull(store.getAdherenceType(days[i], i % 2 == 0 ? prezista : ritonavir, i % 2));
+        }
+        assertFalse(store.contains(16501));
+    }
+
+    @Test
+    public void countAdherence() {
+        AdherenceStore store = new AdherenceStore();
+        for (int day = 0; day < 30; day++) {
+            store.setAdherence(17000 + day, ritonavir, 0, new Adherence(Adherence.AdherenceType.TAKEN, null));
+            store.setAdherence(17000 + day, ritonavir, 1, new Adherence(day % 3 == 0 ? Adherence.AdherenceType.MISSED : Adherence.AdherenceType.TAKEN, null));
+        }
+        int[] counts = new int[Adherence.AdherenceType.values().length];
+        store.countAdherence(16990, 17010, ritonavir, counts); // 10 days in range
+        assertEquals(16, counts[Adherence.AdherenceType.TAKEN.ordinal()]);
+        assertEquals(4, counts[Adherence.AdherenceType.MISSED.ordinal()]);
+
+        counts = new int[Adherence.AdherenceType.values().length];
+        store.countAdherence(17000, 17030, prezista, counts);
+        assertEquals(0, counts[Adherence.AdherenceType.TAKEN.ordinal()]);
+    }
+
+    @Test
+    public void countAdherenceAfterChanges() {
+        AdherenceStore store = new AdherenceStore();
+        Adherence.AdherenceType[] adherenceTypes = Adherence.AdherenceType.values();
+        int[] counts = new int[adherenceTypes.length];
+        int[] expected = new int[adherenceTypes.length];
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            // changes single doses, also growing the store, between counts over random ranges
+            int day = 17000 + random.nextInt(400) - 100;
+            int type = random.nextInt(adherenceTypes.length + 1);
+            store.setAdherence(day, ritonavir, random.nextInt(2), type == adherenceTypes.length ? null : new Adherence(adherenceTypes[type], null));
+
+            int fromDay = 17000 + random.nextInt(400) - 150;
+            int toDay = fromDay + random.nextInt(60);
+            Arrays.fill(counts, 0);
+            Arrays.fill(expected, 0);
+            store.countAdherence(fromDay, toDay, ritonavir, counts);
+            for (int d = fromDay; d < toDay; d++) {
+                for (int index = 0; index < AdherenceStore.SLOTS_PER_DAY; index++) {
+                    Adherence.AdherenceType adherenceType = store.getAdherenceType(d, ritonavir, index);
+                    if (adherenceType != null)
+                        expected[adherenceType.ordinal()]++;
+                }
+            }
+            assertArrayEquals(expected, counts);
+        }
+    }
+
+    @Test
+    public void fromMap() {
+        Map<Calendar, Map<Medication, Adherence[]>> adherenceData = new TreeMap<>();
+        Map<Medication, Adherence[]> dailyAdherence = new HashMap<>();
+        dailyAdherence.put(prezista, new Adherence[]{new Adherence(Adherence.AdherenceType.NONE, null), null});
+        adherenceData.put(Utils.getDateKey(2017, Calendar.MAY, 3), dailyAdherence);
+
+        AdherenceStore store = AdherenceStore.fromMap(adherenceData);
+        int epochDay = Utils.getEpochDay(2017, Calendar.MAY, 3);
+        assertEquals(Adherence.AdherenceType.NONE, store.getAdherenceType(epochDay, prezista, 0));
+        assertNull(store.getAdherenceType(epochDay, prezista, 1));
+    }
+
+    @Test
+    public void compareLookupWithTreeMap() {
+        Medication[] medications = {ritonavir, prezista};
+        int firstDay = Utils.getEpochDay(2016, Calendar.JANUARY, 1);
+        int numberOfDays = 2 * 365;
+        Map<Calendar, Map<Medication, Adherence[]>> adherenceData = new TreeMap<>();
+        for (int day = 0; day < numberOfDays; day++) {
+            Map<Medication, Adherence[]> dailyAdherence = new HashMap<>();
+            for (Medication medication : medications)
+                dailyAdherence.put(medication, new Adherence[]{new Adherence(Adherence.AdherenceType.TAKEN, null),
+                        new Adherence(Adherence.AdherenceType.MISSED, null)});
+            adherenceData.put(Utils.getDateKey(firstDay + day), dailyAdherence);
+        }
+        AdherenceStore store = AdherenceStore.fromMap(adherenceData);
+
+        // look up a month of days the way the calendar and progress views did before
+        Calendar month = Utils.getDateKey(2017, Calendar.MARCH, 1);
+        int mapCount = 0;
+        for (int date = 1; date <= 31; date++) {
+            Map<Medication, Adherence[]> dailyAdherence = adherenceData.get(Utils.getDateKey(month.get(Calendar.YEAR), month.get(Calendar.MONTH), date));
+            for (Medication medication : medications) {
+                for (Adherence adherence : dailyAdherence.get(medication)) {
+                    if (adherence.getAdherenceType() == Adherence.AdherenceType.TAKEN)
+                        mapCount++;
+                }
+            }
+        }
+
+        int storeCount = 0;
+        for (int date = 1; date <= 31; date++) {
+            int epochDay = Utils.getEpochDay(month.get(Calendar.YEAR), month.get(Calendar.MONTH), date);
+            for (Medication medication : medications) {
+                for (int slot = 0; slot < AdherenceStore.SLOTS_PER_DAY; slot++) {
+                    if (store.getAdherenceType(epochDay, medication, slot) == Adherence.AdherenceType.TAKEN)
+                        storeCount++;
+                }
+            }
+        }
+        assertEquals(62, mapCount);
+        assertEquals(mapCount, storeCount);
+    }
+}
@@ -0,0 +1,124 @@
+package cs.umass.edu.prepare.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a {@link DataFile} falls back to its previous version if the current version is
+ * missing, truncated or corrupt, as happens when the application is killed mid-write, and that a
+ * version written for a transaction only replaces the current version once committed.
+ */
+public class DataFileTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] FIRST = "first version".getBytes(UTF_8);
+
+    private static final byte[] SECOND = "second version".getBytes(UTF_8);
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("data").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                assertTrue(file.delete());
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void readsLatestVersion() throws IOException {
+        DataFile dataFile = new DataFile(directory, "schedule");
+        dataFile.write(FIRST);
+        dataFile.write(SECOND);
+        assertArrayEquals(SECOND, dataFile.read());
+        assertFalse(new File(directory, "schedule.tmp").exists());
+    }
+
+    @Test
+    public void truncatedVersionFallsBack() throws IOException {
+        DataFile dataFile = new DataFile(directory, "adherence_data");
+        dataFile.write(FIRST);
+        dataFile.write(SECOND);
+        File file = new File(directory, "adherence_data");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - 3);
+        randomAccessFile.close();
+        assertArrayEquals(FIRST, dataFile.read());
+    }
+
+    @Test
+    public void corruptVersionFallsBack() throws IOException {
+        DataFile dataFile = new DataFile(directory, "medications");
+        dataFile.write(FIRST);
+        dataFile.write(SECOND);
+        File file = new File(directory, "medications");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(file.length() - 1);
+        randomAccessFile.write('?');
+        randomAccessFile.close();
+        assertArrayEquals(FIRST, dataFile.read());
+    }
+
+    @Test
+    public void missingVersionFallsBack() throws IOException {
+        DataFile dataFile = new DataFile(directory, "reminders");
+        dataFile.write(FIRST);
+        dataFile.write(SECOND);
+        assertTrue(new File(directory, "reminders").delete()); // killed between the two renames
+        assertArrayEquals(FIRST, dataFile.read());
+    }
+
+    @Test
+    public void readsFileWithoutHeader() throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(new File(directory, "dosage_mapping"));
+        outputStream.write(FIRST);
+        outputStream.close();
+        assertArrayEquals(FIRST, new DataFile(directory, "dosage_mapping").read());
+    }
+
+    @Test
+    public void tempVersionReplacesOnlyWhenCommitted() throws IOException {
+        DataFile dataFile = new DataFile(directory, "medications");
+        dataFile.write(FIRST);
+        dataFile.writeTemp(SECOND);
+        assertTrue(dataFile.hasTemp());
+        assertArrayEquals(FIRST, dataFile.read());
+
+        dataFile.commitTemp();
+        assertFalse(dataFile.hasTemp());
+        assertArrayEquals(SECOND, dataFile.read());
+    }
+
+    @Test
+    public void discardedTempVersionIsNotRead() throws IOException {
+        DataFile dataFile = new DataFile(directory, "medications");
+        dataFile.write(FIRST);
+        dataFile.writeTemp(SECOND);
+        dataFile.discardTemp();
+        assertFalse(dataFile.hasTemp());
+        assertArrayEquals(FIRST, dataFile.read());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void missingFile() throws IOException {
+        new DataFile(directory, "address_mapping").read();
+    }
+}
@@ -0,0 +1,82 @@
+package cs.umass.edu.prepare.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the {@link DataWriter} coalesces rapid writes of the same file and preserves the
+ * order in which dependent writes are requested.
+ */
+public class DataWriterTest {
+
+    private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+    private DataWriter.Operation record(final String value){
+        return () -> written.add(value);
+    }
+
+    @Test
+    public void writesOnlyLatestVersion() {
+        DataWriter writer = new DataWriter();
+        for (int i = 0; i < 100; i++)
+            writer.write("schedule", record("schedule " + i));
+        writer.flush();
+        assertEquals(Collections.singletonList("schedule 99"), written);
+    }
+
+    @Test
+    public void writesAfterDebounceDelay() throws InterruptedException {
+        DataWriter writer = new DataWriter();
+        writer.write("reminders", record("reminders"));
+        assertTrue(written.isEmpty());
+        Thread.sleep(4 * DataWriter.DEBOUNCE_DELAY_MS);
+        assertEquals(Collections.singletonList("reminders"), written);
+    }
+
+    @Test
+    public void continuousWritesAreNotDeferredIndefinitely() throws InterruptedException {
+        DataWriter writer = new DataWriter();
+        long deadline = System.currentTimeMillis() + 2 * DataWriter.MAX_DELAY_MS;
+        for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+            writer.write("adherence", record("adherence " + i));
+            Thread.sleep(DataWriter.DEBOUNCE_DELAY_MS / 5);
+        }
+        assertFalse(written.isEmpty());
+    }
+
+    @Test
+    public void appendsAfterPendingWrite() {
+        DataWriter writer = new DataWriter();
+        writer.append("journal", record("append 1"));
+        writer.write("snapshot", record("snapshot"));
+        writer.cancel("journal"); // included in the snapshot
+        writer.append("journal", record("reset"));
+        writer.append("journal", record("append 2"));
+        writer.flush();
+        assertEquals(java.util.Arrays.asList("snapshot", "reset", "append 2"), written);
+    }
+
+    @Test
+    public void appendsAfterFailedOperation() {
+        DataWriter writer = new DataWriter();
+        writer.append("journal", record("append 1"));
+        writer.append("journal", () -> {
+            throw new java.io.IOException("disk full");
+        });
+        writer.append("journal", record("append 2"));
+        writer.flush();
+        assertEquals(java.util.Arrays.asList("append 1", "append 2"), written);
+    }
+
+    @Test
+    public void flushWithoutPendingWrites() {
+        DataWriter writer = new DataWriter();
+        writer.flush();
+        assertTrue(written.isEmpty());
+    }
+}
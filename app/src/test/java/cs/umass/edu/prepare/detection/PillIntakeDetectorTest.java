@@ -0,0 +1,110 @@
+package cs.umass.edu.prepare.detection;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link PillIntakeDetector} by replaying sensor traces in CSV form, one sample per
+ * line: timestamp in milliseconds, accelerometer x, y, z (g), gyroscope x, y, z (degrees per
+ * second). Recorded traces can be replayed with {@link #replay(Reader)}; the traces below are
+ * synthetic, a wrist at rest with sensor noise, and wrist rotations resembling a pill intake.
+ */
+public class PillIntakeDetectorTest {
+
+    /** The sampling interval in milliseconds, i.e. SampleRate.MS16. */
+    private static final int INTERVAL_MS = 16;
+
+    /** The duration of a synthetic gesture in milliseconds. */
+    private static final int GESTURE_MS = 2000;
+
+    /**
+     * Replays a CSV trace through a new detector.
+     * @param trace the trace, optionally beginning with a header line.
+     * @return the time of each detection.
+     */
+    private static List<Long> replay(Reader trace) throws IOException {
+        List<Long> detections = new ArrayList<>();
+        PillIntakeDetector detector = new PillIntakeDetector(detections::add);
+        BufferedReader reader = new BufferedReader(trace);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || !Character.isDigit(line.charAt(0)))
+                continue; // header
+            String[] values = line.split(",");
+            detector.add(Long.parseLong(values[0]), Float.parseFloat(values[1]), Float.parseFloat(values[2]),
+                    Float.parseFloat(values[3]), Float.parseFloat(values[4]), Float.parseFloat(values[5]),
+                    Float.parseFloat(values[6]));
+        }
+        return detections;
+    }
+
+    /**
+     * Generates a synthetic trace.
+     * @param durationMs the duration of the trace.
+     * @param gestureStarts the times at which gestures start.
+     * @return the trace in CSV form.
+     */
+    private static String getTrace(int durationMs, int... gestureStarts){
+        Random random = new Random(42);
+        StringBuilder csv = new StringBuilder("timestamp,ax,ay,az,gx,gy,gz\n");
+        for (int t = 0; t < durationMs; t += INTERVAL_MS) {
+            float ax = 0, ay = 0, az = 1, gx = 0, gy = 0;
+            for (int start : gestureStarts) {
+                if (t >= start && t < start + GESTURE_MS) {
+                    double phase = 2 * Math.PI * (t - start) / GESTURE_MS;
+                    ax = (float) (0.4 * Math.sin(phase));
+                    az = (float) (1 - 0.3 * Math.sin(phase / 2));
+                    gx = (float) (150 * Math.sin(phase));
+                    gy = (float) (60 * Math.sin(2 * phase));
+                }
+            }
+            csv.append(String.format(Locale.US, "%d,%.4f,%.4f,%.4f,%.2f,%.2f,%.2f\n", t,
+                    ax + 0.01 * random.nextGaussian(), ay + 0.01 * random.nextGaussian(), az + 0.01 * random.nextGaussian(),
+                    gx + random.nextGaussian(), gy + random.nextGaussian(), random.nextGaussian()));
+        }
+        return csv.toString();
+    }
+
+    @Test
+    public void ignoresWristAtRest() throws IOException {
+        assertTrue(replay(new StringReader(getTrace(60000))).isEmpty());
+    }
+
+    @Test
+    public void detectsGesture() throws IOException {
+        List<Long> detections = replay(new StringReader(getTrace(20000, 8000)));
+        assertEquals(1, detections.size());
+        long detection = detections.get(0);
+        assertTrue("detected at " + detection, detection >= 8000 && detection <= 8000 + 2 * GESTURE_MS);
+    }
+
+    @Test
+    public void suppressesRepeatedDetections() throws IOException {
+        assertEquals(1, replay(new StringReader(getTrace(40000, 5000, 15000))).size());
+        assertEquals(2, replay(new StringReader(getTrace(60000, 5000, 45000))).size());
+    }
+
+    @Test
+    public void featuresMatchWindow() {
+        PillIntakeDetector detector = new PillIntakeDetector(timestamp -> {});
+        for (int i = 0; i < 3 * PillIntakeDetector.WINDOW_SIZE; i++)
+            detector.add(i, i % 2, 0, 1, 10 * (i % 2), 0, 0);
+        float[] features = new float[PillIntakeDetector.FEATURES];
+        detector.computeFeatures(features);
+        assertEquals(0.5, features[0], 1e-6);
+        assertEquals(0, features[1], 1e-6);
+        assertEquals(5, features[3], 1e-5);
+        assertEquals(0.5, features[6], 1e-6);
+        assertEquals(1, features[8], 1e-6);
+    }
+}
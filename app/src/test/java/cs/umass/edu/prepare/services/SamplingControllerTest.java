@@ -0,0 +1,72 @@
+package cs.umass.edu.prepare.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the {@link SamplingController} raises the rate on motion, lowers it again after
+ * the wrist has been at rest, and counts the samples saved.
+ */
+public class SamplingControllerTest {
+
+    private final List<Boolean> rateChanges = new ArrayList<>();
+
+    private final SamplingController controller = new SamplingController(rateChanges::add);
+
+    /** The current time of the simulated session. */
+    private long time;
+
+    /**
+     * Feeds samples at the rate currently requested by the controller.
+     */
+    private void sample(long durationMs, float angularVelocity){
+        long end = time + durationMs;
+        while (time < end) {
+            time += controller.isHighRate() ? 16 : 128;
+            controller.onSample(time, angularVelocity, 0, 0);
+        }
+    }
+
+    @Test
+    public void staysLowAtRest() {
+        controller.start(time);
+        sample(20000, 2);
+        controller.stop(time);
+        assertTrue(rateChanges.isEmpty());
+        assertEquals(time / 128, controller.getSamples());
+        assertEquals(time / 16 - time / 128, controller.getSamplesSaved());
+    }
+
+    @Test
+    public void escalatesOnMotionAndRelaxesAtRest() {
+        controller.start(time);
+        sample(5000, 2);
+        sample(2000, 100);
+        assertEquals(1, rateChanges.size());
+        assertTrue(rateChanges.get(0));
+
+        sample(SamplingController.HOLD_MS - 1000, 2);
+        assertEquals(1, rateChanges.size()); // the wrist must rest for the hold time
+        sample(2000, 2);
+        assertEquals(2, rateChanges.size());
+        assertFalse(rateChanges.get(1));
+
+        controller.stop(time);
+        assertTrue(controller.getSamplesSaved() > 0);
+        assertTrue(controller.getSamplesSaved() < (time / 16) - controller.getSamples() + 1);
+    }
+
+    @Test
+    public void ignoresSingleSample() {
+        controller.start(time);
+        sample(5000, 2);
+        controller.onSample(time + 128, 50, 0, 0); // smoothed, so a single sample does not escalate
+        time += 128;
+        sample(5000, 2);
+        assertTrue(rateChanges.isEmpty());
+    }
+}
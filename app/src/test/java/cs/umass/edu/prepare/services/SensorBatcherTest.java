@@ -0,0 +1,70 @@
+package cs.umass.edu.prepare.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the {@link SensorBatcher} sends frames when full or too old, and drops samples
+ * rather than allocating when every frame is waiting to be sent.
+ */
+public class SensorBatcherTest {
+
+    /** The timestamps of each frame sent, copied since frames are reused. */
+    private final List<long[]> sent = new ArrayList<>();
+
+    private final SensorBatcher.FrameSender sender = frame -> {
+        long[] timestamps = new long[frame.size];
+        System.arraycopy(frame.timestamps, 0, timestamps, 0, frame.size);
+        sent.add(timestamps);
+    };
+
+    private static void add(SensorBatcher batcher, long timestamp){
+        batcher.add(timestamp, 1, 2, 3, 4, 5, 6);
+    }
+
+    @Test
+    public void sendsFullFrames() {
+        SensorBatcher batcher = new SensorBatcher(4, 1000, 2, sender, Runnable::run);
+        for (int i = 0; i < 10; i++)
+            add(batcher, 16 * i);
+        assertEquals(2, sent.size());
+        assertArrayEquals(new long[]{64, 80, 96, 112}, sent.get(1));
+
+        batcher.flush();
+        assertEquals(3, sent.size());
+        assertArrayEquals(new long[]{128, 144}, sent.get(2));
+        assertEquals(0, batcher.getDropped());
+    }
+
+    @Test
+    public void sendsOldFrames() {
+        SensorBatcher batcher = new SensorBatcher(64, 100, 2, sender, Runnable::run);
+        add(batcher, 0);
+        add(batcher, 50);
+        add(batcher, 100); // the first sample is now too old
+        assertEquals(1, sent.size());
+        assertArrayEquals(new long[]{0, 50}, sent.get(0));
+    }
+
+    @Test
+    public void dropsSamplesWhenAllFramesAreSending() {
+        List<Runnable> pending = new ArrayList<>();
+        SensorBatcher batcher = new SensorBatcher(2, 1000, 2, sender, pending::add);
+        for (int i = 0; i < 6; i++)
+            add(batcher, i);
+        assertEquals(2, pending.size());
+        assertEquals(2, batcher.getDropped());
+
+        for (Runnable runnable : pending)
+            runnable.run();
+        add(batcher, 6);
+        add(batcher, 7);
+        assertEquals(3, pending.size());
+        pending.get(2).run();
+        assertArrayEquals(new long[]{6, 7}, sent.get(2));
+    }
+}
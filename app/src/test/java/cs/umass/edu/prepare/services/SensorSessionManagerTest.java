@@ -0,0 +1,86 @@
+package cs.umass.edu.prepare.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the {@link SensorSessionManager} debounces sightings, starts a single session for
+ * repeated sightings, and re-arms only after the session has ended.
+ */
+public class SensorSessionManagerTest {
+
+    private static final String BOTTLE = "D4:8C:42:B2:9A:01";
+
+    private static final String OTHER_BOTTLE = "D4:8C:42:B2:9A:02";
+
+    private final List<String> events = new ArrayList<>();
+
+    private final SensorSessionManager manager = new SensorSessionManager(new SensorSessionManager.SessionListener() {
+        @Override
+        public void onSessionStarted(String address) {
+            events.add("start " + address);
+        }
+
+        @Override
+        public void onSessionStopped(String address) {
+            events.add("stop " + address);
+        }
+    });
+
+    @Test
+    public void debouncesSightings() {
+        assertFalse(manager.onBeaconSighted(BOTTLE, 0));
+        // the second sighting is too late to count towards the first
+        assertFalse(manager.onBeaconSighted(BOTTLE, SensorSessionManager.DEBOUNCE_WINDOW_MS + 1));
+        assertTrue(events.isEmpty());
+        assertTrue(manager.onBeaconSighted(BOTTLE, SensorSessionManager.DEBOUNCE_WINDOW_MS + 1000));
+        assertEquals(1, events.size());
+        assertEquals("start " + BOTTLE, events.get(0));
+    }
+
+    @Test
+    public void startsOncePerSession() {
+        manager.onBeaconSighted(BOTTLE, 0);
+        manager.onBeaconSighted(BOTTLE, 1000);
+        for (long now = 2000; now < SensorSessionManager.SESSION_MS; now += 1000) {
+            assertFalse(manager.onBeaconSighted(BOTTLE, now));
+            assertFalse(manager.onBeaconSighted(OTHER_BOTTLE, now));
+        }
+        assertEquals(1, manager.getSessionsStarted());
+        assertEquals(1 + 2 * 18, manager.getStartsSuppressed());
+        assertEquals(1000 + SensorSessionManager.SESSION_MS, manager.getNextDeadline());
+
+        manager.tick(manager.getNextDeadline() - 1);
+        assertTrue(manager.isSessionActive());
+        manager.tick(manager.getNextDeadline());
+        assertFalse(manager.isSessionActive());
+        assertEquals(-1, manager.getNextDeadline());
+        assertEquals(2, events.size());
+        assertEquals("stop " + BOTTLE, events.get(1));
+    }
+
+    @Test
+    public void rearmsAfterInterval() {
+        manager.onBeaconSighted(BOTTLE, 0);
+        manager.onBeaconSighted(BOTTLE, 1000);
+        long end = manager.getNextDeadline();
+        manager.tick(end);
+
+        // the same bottle stays nearby
+        assertFalse(manager.onBeaconSighted(BOTTLE, end + 1000));
+        assertFalse(manager.onBeaconSighted(BOTTLE, end + 2000));
+        // another bottle may start a session right away
+        manager.onBeaconSighted(OTHER_BOTTLE, end + 1000);
+        assertTrue(manager.onBeaconSighted(OTHER_BOTTLE, end + 2000));
+        manager.tick(manager.getNextDeadline());
+
+        long rearmed = end + SensorSessionManager.REARM_INTERVAL_MS;
+        assertFalse(manager.onBeaconSighted(BOTTLE, rearmed));
+        assertTrue(manager.onBeaconSighted(BOTTLE, rearmed + 1000));
+        assertEquals(3, manager.getSessionsStarted());
+    }
+}
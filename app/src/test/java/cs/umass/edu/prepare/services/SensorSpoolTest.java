@@ -0,0 +1,110 @@
+package cs.umass.edu.prepare.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link SensorSpool} against a fake server which records the frames it receives.
+ */
+public class SensorSpoolTest {
+
+    private static final int SAMPLES_PER_FRAME = 64;
+
+    /** Records the first timestamp and size of each frame received. */
+    private static class FakeServer implements SensorBatcher.FrameSender {
+
+        private final List<Long> timestamps = new ArrayList<>();
+
+        @Override
+        public void send(SensorBatcher.Frame frame) {
+            assertEquals(SAMPLES_PER_FRAME, frame.size);
+            for (int i = 0; i < frame.size; i++) {
+                assertEquals(frame.timestamps[0] + i, frame.timestamps[i]);
+                assertEquals(frame.timestamps[i] % 100, frame.values[i * SensorBatcher.CHANNELS + 5], 0);
+            }
+            timestamps.add(frame.timestamps[0]);
+        }
+    }
+
+    private File directory;
+
+    private final FakeServer server = new FakeServer();
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("spool").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                assertTrue(file.delete());
+        assertTrue(directory.delete());
+    }
+
+    private static SensorBatcher.Frame getFrame(long timestamp){
+        SensorBatcher.Frame frame = new SensorBatcher.Frame(SAMPLES_PER_FRAME);
+        for (int i = 0; i < SAMPLES_PER_FRAME; i++) {
+            frame.timestamps[i] = timestamp + i;
+            frame.values[i * SensorBatcher.CHANNELS + 5] = (timestamp + i) % 100;
+        }
+        frame.size = SAMPLES_PER_FRAME;
+        return frame;
+    }
+
+    private static int getFramesPerSegment(){
+        return (SensorSpool.SEGMENT_SIZE - 4) / (8 + SAMPLES_PER_FRAME * (8 + 4 * SensorBatcher.CHANNELS));
+    }
+
+    @Test
+    public void drainsInOrder() throws IOException {
+        SensorSpool spool = new SensorSpool(directory, 4);
+        int count = getFramesPerSegment() + 10; // spans two segments
+        for (int i = 0; i < count; i++)
+            spool.append(getFrame(1000L * i));
+
+        assertEquals(count, spool.drain(new SensorBatcher.Frame(SAMPLES_PER_FRAME), server));
+        assertEquals(count, server.timestamps.size());
+        for (int i = 0; i < count; i++)
+            assertEquals(1000L * i, (long) server.timestamps.get(i));
+        assertTrue(spool.isEmpty());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void dropsOldestSegment() throws IOException {
+        SensorSpool spool = new SensorSpool(directory, 2);
+        int framesPerSegment = getFramesPerSegment();
+        int count = 2 * framesPerSegment + 1; // starts a third segment
+        for (int i = 0; i < count; i++)
+            spool.append(getFrame(1000L * i));
+
+        assertEquals(framesPerSegment, spool.getDropped());
+        assertEquals(2, directory.list().length);
+        assertEquals(count - framesPerSegment, spool.drain(new SensorBatcher.Frame(SAMPLES_PER_FRAME), server));
+        assertEquals(1000L * framesPerSegment, (long) server.timestamps.get(0));
+    }
+
+    @Test
+    public void drainsFramesOfPreviousProcess() throws IOException {
+        SensorSpool spool = new SensorSpool(directory, 4);
+        for (int i = 0; i < 3; i++)
+            spool.append(getFrame(1000L * i));
+
+        SensorSpool reopened = new SensorSpool(directory, 4);
+        reopened.append(getFrame(3000));
+        assertEquals(4, reopened.drain(new SensorBatcher.Frame(SAMPLES_PER_FRAME), server));
+        assertEquals(3000L, (long) server.timestamps.get(3));
+    }
+}
@@ -0,0 +1,91 @@
+package cs.umass.edu.prepare.view.custom;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Queue;
+
+import cs.umass.edu.prepare.data.Adherence;
+import cs.umass.edu.prepare.data.AdherenceStore;
+import cs.umass.edu.prepare.data.Medication;
+import cs.umass.edu.prepare.util.Utils;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the {@link MonthAdherenceCache} prefetches the adjacent months, drops only the
+ * months touched by a change and discards months built from stale data.
+ */
+public class MonthAdherenceCacheTest {
+
+    /** The tasks submitted to the background executor, run explicitly by the test. */
+    private final Queue<Runnable> backgroundTasks = new ArrayDeque<>();
+
+    private final MonthAdherenceCache cache = new MonthAdherenceCache(backgroundTasks::add, Runnable::run);
+
+    private final Medication truvada = new Medication("Truvada");
+
+    private final AdherenceStore store = new AdherenceStore();
+
+    public MonthAdherenceCacheTest(){
+        List<Medication> medications = new ArrayList<>();
+        medications.add(truvada);
+        cache.setData(store, medications);
+    }
+
+    private void runBackgroundTasks(){
+        while (!backgroundTasks.isEmpty())
+            backgroundTasks.poll().run();
+    }
+
+    @Test
+    public void prefetchesAdjacentMonths() {
+        cache.get(2017, Calendar.JANUARY);
+        cache.prefetch(2017, Calendar.JANUARY);
+        assertEquals(2, backgroundTasks.size());
+        runBackgroundTasks();
+        assertTrue(cache.contains(2016, Calendar.DECEMBER));
+        assertTrue(cache.contains(2017, Calendar.FEBRUARY));
+
+        cache.prefetch(2017, Calendar.FEBRUARY);
+        assertFalse(cache.contains(2016, Calendar.DECEMBER));
+        assertEquals(1, backgroundTasks.size()); // only March
+    }
+
+    @Test
+    public void invalidatesOnlyChangedMonths() {
+        cache.get(2017, Calendar.AUGUST);
+        cache.prefetch(2017, Calendar.AUGUST);
+        runBackgroundTasks();
+
+        int day = Utils.getEpochDay(2017, Calendar.SEPTEMBER, 1);
+        store.setAdherence(day, truvada, 0, new Adherence(Adherence.AdherenceType.MISSED, null));
+        cache.invalidate(day, day);
+        assertTrue(cache.contains(2017, Calendar.JULY));
+        assertTrue(cache.contains(2017, Calendar.AUGUST));
+        assertFalse(cache.contains(2017, Calendar.SEPTEMBER));
+
+        runBackgroundTasks(); // rebuilds September
+        assertEquals(Adherence.AdherenceType.MISSED, cache.get(2017, Calendar.SEPTEMBER).getAdherenceType(1, 0, 0));
+    }
+
+    @Test
+    public void discardsStaleMonths() {
+        cache.get(2017, Calendar.AUGUST);
+        cache.prefetch(2017, Calendar.AUGUST);
+        Runnable staleTask = backgroundTasks.poll(); // builds July
+        backgroundTasks.clear();
+
+        int day = Utils.getEpochDay(2017, Calendar.JULY, 31);
+        store.setAdherence(day, truvada, 1, new Adherence(Adherence.AdherenceType.FUTURE, null));
+        cache.invalidate(day, day);
+        staleTask.run();
+        assertFalse(cache.contains(2017, Calendar.JULY));
+
+        runBackgroundTasks();
+        assertEquals(Adherence.AdherenceType.FUTURE, cache.get(2017, Calendar.JULY).getAdherenceType(31, 0, 1));
+    }
+}
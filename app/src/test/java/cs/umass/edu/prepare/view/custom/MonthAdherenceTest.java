@@ -0,0 +1,59 @@
+package cs.umass.edu.prepare.view.custom;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import cs.umass.edu.prepare.data.Adherence;
+import cs.umass.edu.prepare.data.AdherenceStore;
+import cs.umass.edu.prepare.data.Medication;
+import cs.umass.edu.prepare.util.Utils;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the {@link MonthAdherence} model lays out a month as a {@link Calendar} would and
+ * copies the adherence of each dose.
+ */
+public class MonthAdherenceTest {
+
+    @Test
+    public void laysOutMonthLikeCalendar() {
+        for (int year = 1999; year <= 2025; year++) {
+            for (int month = Calendar.JANUARY; month <= Calendar.DECEMBER; month++) {
+                Calendar calendar = Calendar.getInstance();
+                calendar.clear();
+                calendar.set(year, month, 1);
+                MonthAdherence model = new MonthAdherence(year, month, null, null);
+                int leadingCells = calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+                assertEquals(calendar.getActualMaximum(Calendar.DAY_OF_MONTH), model.getDaysInMonth());
+                assertEquals(0, model.getDayOfMonth(leadingCells - 1));
+                assertEquals(1, model.getDayOfMonth(leadingCells));
+                assertEquals(leadingCells, model.getCell(1));
+                assertEquals(model.getDaysInMonth(), model.getDayOfMonth(model.getCellCount() - 1));
+            }
+        }
+    }
+
+    @Test
+    public void copiesAdherence() {
+        Medication truvada = new Medication("Truvada");
+        Medication ritonavir = new Medication("Ritonavir");
+        List<Medication> medications = new ArrayList<>();
+        medications.add(truvada);
+        medications.add(ritonavir);
+        int day = Utils.getEpochDay(2017, Calendar.AUGUST, 15);
+        AdherenceStore store = new AdherenceStore();
+        store.setAdherence(day, ritonavir, 1, new Adherence(Adherence.AdherenceType.MISSED, null));
+        store.setAdherence(day + 17, truvada, 0, new Adherence(Adherence.AdherenceType.FUTURE, null)); // September 1
+
+        MonthAdherence model = new MonthAdherence(2017, Calendar.AUGUST, store, medications);
+        assertEquals(Adherence.AdherenceType.MISSED, model.getAdherenceType(15, 1, 1));
+        assertNull(model.getAdherenceType(15, 0, 1));
+        assertNull(model.getAdherenceType(15, 1, 0));
+        assertTrue(model.overlaps(day, day));
+        assertFalse(model.overlaps(day + 17, day + 30));
+    }
+}